@@ -5,10 +5,12 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan( "com.hmdp.mapper" )
 @SpringBootApplication
 @EnableAspectJAutoProxy( exposeProxy = true )
+@EnableScheduling
 public class HmDianPingApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,32 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存过期时间随机抖动，按比例随机延长过期时间，同一批写入的key不在同一时刻过期
+ * 比例 0.1 表示过期时间在 [ttl, 1.1 * ttl) 之间，小于等于0表示不抖动
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.ttl")
+public class CacheTtlProperties {
+
+    /**
+     * 默认抖动比例
+     */
+    private double jitter = 0.1;
+
+    /**
+     * 指定key前缀的抖动比例，prefix -> ratio
+     */
+    private Map<String, Double> jitters = new HashMap<>();
+
+    public double jitterOf(String prefix) {
+        return jitters.getOrDefault(prefix, jitter);
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 全局id生成配置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdWorkerProperties {
+
+    /**
+     * 每次生成id执行一次 INCR
+     */
+    public static final String MODE_INCR = "incr";
+
+    /**
+     * 每次 INCRBY 预留一段序列号，本地发放
+     */
+    public static final String MODE_LEASE = "lease";
+
+    /**
+     * 本地雪花算法，workerId 从redis租用
+     */
+    public static final String MODE_SNOWFLAKE = "snowflake";
+
+    /**
+     * 默认生成方式
+     */
+    private String defaultMode = MODE_INCR;
+
+    /**
+     * 按key前缀指定生成方式，例如 order: lease
+     */
+    private Map<String, String> modes = new HashMap<>();
+
+    /**
+     * lease 模式每次预留的序列号数量
+     */
+    private long leaseStep = 1000;
+
+    /**
+     * lease 模式剩余比例低于该值时异步预取下一段
+     */
+    private double prefetchRatio = 0.2;
+
+    /**
+     * snowflake 模式 workerId 租约有效期，毫秒
+     */
+    private long snowflakeLeaseTtl = 30000;
+
+    public String modeOf(String keyPrefix) {
+        return modes.getOrDefault(keyPrefix, defaultMode);
+    }
+
+    public boolean usesMode(String mode) {
+        return mode.equals(defaultMode) || modes.containsValue(mode);
+    }
+}
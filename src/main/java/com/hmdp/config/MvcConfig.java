@@ -1,8 +1,10 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.FreshInterceptor;
+import com.hmdp.utils.InternalApiInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -19,6 +21,11 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 运维接口令牌，为空时运维接口不可用
+     */
+    @Value("${hmdp.internal.token:}")
+    private String internalToken;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -32,5 +39,9 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/voucher/**").order(1);
 
         registry.addInterceptor(new FreshInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+
+        // 修改库存等运维接口，不对用户开放
+        registry.addInterceptor(new InternalApiInterceptor(internalToken))
+                .addPathPatterns("/voucher/seckill/*/stock", "/voucher/seckill/reconcile", "/shop/*/counter").order(2);
     }
 }
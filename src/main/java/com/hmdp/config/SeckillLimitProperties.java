@@ -0,0 +1,60 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 秒杀限流配置，速率单位：次/秒，小于等于0表示不限流
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill.limit")
+public class SeckillLimitProperties {
+
+    /**
+     * 是否开启限流
+     */
+    private boolean enabled = true;
+
+    /**
+     * 单节点所有优惠券合计速率
+     */
+    private long nodeRate = 2000;
+
+    /**
+     * 本地最多保留的优惠券限流器数量，超出后淘汰最久未使用的
+     */
+    private int maxVouchers = 10000;
+
+    /**
+     * 单节点每个优惠券的默认速率
+     */
+    private long voucherRate = 500;
+
+    /**
+     * 单节点指定优惠券的速率，voucherId -> rate
+     */
+    private Map<Long, Long> voucherRates = new HashMap<>();
+
+    /**
+     * 集群内每个优惠券的默认速率，由redis lua令牌桶控制
+     */
+    private long globalRate = 0;
+
+    /**
+     * 集群内指定优惠券的速率，voucherId -> rate
+     */
+    private Map<Long, Long> globalRates = new HashMap<>();
+
+    public long voucherRateOf(Long voucherId) {
+        return voucherRates.getOrDefault(voucherId, voucherRate);
+    }
+
+    public long globalRateOf(Long voucherId) {
+        return globalRates.getOrDefault(voucherId, globalRate);
+    }
+}
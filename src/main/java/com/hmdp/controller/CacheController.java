@@ -0,0 +1,55 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping( "/cache" )
+public class CacheController {
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 本地缓存命中统计
+     */
+    @GetMapping( "stats" )
+    public Result stats() {
+        return Result.ok(localCache.stats());
+    }
+
+    /**
+     * 启动预热进度
+     */
+    @GetMapping( "warmup" )
+    public Result warmup() {
+        return Result.ok(cacheWarmer.report());
+    }
+
+    /**
+     * 本节点当前热点key，已建立本地副本
+     */
+    @GetMapping( "hot-keys" )
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+}
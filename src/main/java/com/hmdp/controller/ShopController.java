@@ -45,10 +45,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -66,6 +63,23 @@ public class ShopController {
         return shopService.updateByShopId(shop);
     }
 
+    /**
+     * 商铺销量、评论数自增，内部接口，需要携带内部令牌
+     *
+     * @param id    商铺id
+     * @param field 计数字段 sold / comments
+     * @param delta 增量，绝对值不超过 SystemConstants.MAX_COUNTER_DELTA
+     * @return 无
+     */
+    @PutMapping( "/{id}/counter" )
+    public Result incrementCounter(
+            @PathVariable( "id" ) Long id,
+            @RequestParam( "field" ) String field,
+            @RequestParam( value = "delta", defaultValue = "1" ) Integer delta
+    ) {
+        return shopService.incrementCounter(id, field, delta);
+    }
+
     /**
      * 根据商铺类型分页查询商铺信息
      *
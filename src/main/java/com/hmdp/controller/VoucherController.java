@@ -45,6 +45,37 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存，运维接口，需要请求头 X-Internal-Token
+     * @param voucherId 优惠券id
+     * @param count 补充数量
+     * @return 无
+     */
+    @PostMapping("seckill/{id}/stock")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        return voucherService.addSeckillStock(voucherId, count);
+    }
+
+    /**
+     * 查询秒杀券redis剩余库存，包含各分段库存和汇总
+     * @param voucherId 优惠券id
+     * @return 库存信息
+     */
+    @GetMapping("seckill/{id}/stock")
+    public Result querySeckillStock(@PathVariable("id") Long voucherId) {
+        return voucherService.querySeckillStock(voucherId);
+    }
+
+    /**
+     * 查询秒杀券redis与数据库库存对账差异，内部接口，需要携带内部令牌
+     * @param refresh 是否立即手动对账，默认返回上次定时对账结果；手动对账可为进行中的秒杀补redis库存
+     * @return 有差异的秒杀券
+     */
+    @GetMapping("seckill/reconcile")
+    public Result reconcileSeckillStock(@RequestParam(value = "refresh", defaultValue = "false") Boolean refresh) {
+        return voucherService.reconcileSeckillStock(refresh);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -4,6 +4,8 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillRateLimiter;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,8 +27,36 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillRateLimiter seckillRateLimiter;
+
     @PostMapping( "seckill/{id}" )
     public Result seckillVoucher(@PathVariable( "id" ) Long voucherId) {
+        // 准入限流，超过速率直接返回，不访问redis秒杀脚本
+        if (!seckillRateLimiter.tryAcquire(voucherId)) {
+            return Result.fail("系统繁忙，请稍后重试");
+        }
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀限流当前计数
+     *
+     * @return 节点和各优惠券的速率、剩余令牌、放行和拒绝次数
+     */
+    @GetMapping( "limiter" )
+    public Result queryLimiterStats() {
+        return Result.ok(seckillRateLimiter.stats());
+    }
+
+    /**
+     * 查询秒杀订单处理状态，订单异步落库，前端轮询该接口
+     *
+     * @param orderId 订单id
+     * @return QUEUED / PERSISTED / FAILED
+     */
+    @GetMapping( "{id}/status" )
+    public Result queryOrderStatus(@PathVariable( "id" ) Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
 }
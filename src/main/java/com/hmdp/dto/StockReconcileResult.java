@@ -0,0 +1,43 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 单个秒杀券redis与数据库库存对账结果
+ */
+@Data
+public class StockReconcileResult {
+    private Long voucherId;
+    /**
+     * redis剩余库存（所有分段合计）
+     */
+    private Long redisStock;
+    /**
+     * redis已售数量（购买用户set大小 + bitmap购买用户数 + 限购计数合计）
+     */
+    private Long redisSold;
+    /**
+     * 数据库剩余库存
+     */
+    private Long dbStock;
+    /**
+     * 数据库订单数
+     */
+    private Long dbOrders;
+    /**
+     * 尚未落库的订单数 redisSold - dbOrders
+     */
+    private Long inFlight;
+    /**
+     * 差异 (redisStock + redisSold) - (dbStock + dbOrders)，正常为0
+     */
+    private Long delta;
+    /**
+     * 是否已修复
+     */
+    private Boolean repaired;
+    /**
+     * 是否需要手动对账修复：进行中的秒杀redis库存少于数据库时不自动补库存
+     */
+    private Boolean manualRepair;
+}
@@ -90,6 +90,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 每人限购数量，默认1
+     */
+    @TableField(exist = false)
+    private Integer limitPerUser;
+
     /**
      * 创建时间
      */
@@ -16,7 +16,11 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result updateByShopId(Shop shop);
 
+    Result incrementCounter(Long id, String field, int delta);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
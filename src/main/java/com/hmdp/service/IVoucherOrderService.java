@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,8 +18,12 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    Result queryOrderStatus(Long orderId);
+
 /*    Result createVoucherOrder(Long voucherId);*/
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    List<VoucherOrder> createVoucherOrderBatch(Long voucherId, List<VoucherOrder> voucherOrders);
 
 }
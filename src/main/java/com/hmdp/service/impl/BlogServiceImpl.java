@@ -14,6 +14,8 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
@@ -25,7 +27,9 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -44,9 +48,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private FollowServiceImpl followService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryBlogById(Long id) {
+        // 0 布隆过滤器判断博客是否存在
+        if (!cacheBloomFilter.mightContain(RedisConstants.CACHE_BLOG_KEY, id)) {
+            return Result.fail("博客不存在");
+        }
         // 1 查询博客
         Blog blog = getById(id);
         if (blog == null) {
@@ -81,11 +93,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            isBlockLike(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        records.forEach(this::isBlockLike);
         return Result.ok(records);
     }
 
@@ -124,13 +134,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         List<Long> ids = range.stream().map(Long::valueOf).collect(Collectors.toList());
-        String str = StrUtil.join(",", ids);
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids)
-                .last("order by field(id," + str + ")")
-                .list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        List<UserDTO> userDTOS = queryUsers(ids).stream()
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
 
         return Result.ok(userDTOS);
@@ -146,6 +151,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败");
         }
+        cacheBloomFilter.add(RedisConstants.CACHE_BLOG_KEY, blog.getId());
         // 查询作者的粉丝  select * from tb_follow where follow_user_id= ?
         List<Follow> followList = followService.query().eq("follow_user_id", user.getId()).list();
 
@@ -202,9 +208,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .list();
 
 
+        // 4.1 批量查询有关用户
+        queryBlogUsers(blogList);
         for (Blog blog : blogList) {
-            // 4.1 查询有关用户
-            queryBlogUser(blog);
             // 4.2 查看自己有没有点赞
             isBlockLike(blog);
         }
@@ -219,9 +225,32 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
 
     public void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    /**
+     * 批量填充博客作者信息，一次MGET查询缓存，未命中的一次查询数据库
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = queryUsers(userIds);
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if (user != null) {
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private List<UserDTO> queryUsers(List<Long> userIds) {
+        return cacheClient.queryBatchWithPassThrough(
+                RedisConstants.CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> userService.listByIds(ids).stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 }
@@ -1,8 +1,6 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -12,11 +10,13 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisConstants;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopHashCache;
 import com.hmdp.utils.SystemConstants;
-import com.sun.xml.internal.ws.policy.privateutil.PolicyUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -27,10 +27,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -50,6 +47,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private ShopMapper shopMapper;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+
+    @Resource
+    private ShopHashCache shopHashCache;
+
+    /**
+     * 商铺缓存结构 json / hash，见 ShopHashCache
+     */
+    @Value("${hmdp.cache.shop-layout:json}")
+    private String shopLayout;
+
     /**
      * 根据 id查询商铺
      *
@@ -63,8 +75,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 使用互斥锁
         //Shop shop = witchLock(id);
 
-        // 逻辑过期
-        Shop shop = logicExpire(id);
+        // 逻辑过期，本地缓存 + redis 两级缓存；hash结构时只查redis
+        Shop shop = isHashLayout()
+                ? shopHashCache.queryById(id, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                : cacheClient.queryWithLogicalExpire(
+                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("该店铺不存在");
         }
@@ -72,48 +87,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
-    private Shop logicExpire(Long id) {
-        // 1. redis 缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2. 是否有缓存存在
-        if (StrUtil.isBlank(shopJson)) {
-            // 3. 不存在
-            return null;
-        }
-        // 命中  json反序列化
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 未过期,返回
-            return shop;
-        }
-
-        // 已过期,获取互斥锁
-        String lock_key = RedisConstants.LOCK_SHOP_KEY + id;
-
-        boolean isLock = tryLock(lock_key);
-        // 获取锁成功
-        if (isLock) {
-            //开启独立线程 ，缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    this.saveShopToRedis(id, 1800L);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    // 释放锁
-                    unlock(lock_key);
-                }
-
-            });
-        }
-        // 返回过期商铺信息
-        return shop;
+    /**
+     * 新增商铺
+     *
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 写入布隆过滤器，否则新商铺在下次重建前会被当作不存在
+        cacheBloomFilter.add(RedisConstants.CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
     }
 
     /**
@@ -125,11 +111,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public void saveShopToRedis(Long id, Long expireSecondTimes) {
         // 查询店铺数据
         Shop shop = getById(id);
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSecondTimes));
-
-        stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        if (isHashLayout()) {
+            shopHashCache.set(shop, expireSecondTimes, TimeUnit.SECONDS);
+            return;
+        }
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, expireSecondTimes, TimeUnit.SECONDS);
     }
 
     /**
@@ -139,50 +125,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return
      */
     private Shop witchLock(Long id) {
-        // 1. redis 缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2. 是否有缓存存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3. 存在
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        if (shopJson != null) {
-            return null;
-        }
-        Shop shop = null;
-
-        try {
-            // 4.1 获取互斥锁
-            boolean isLock = tryLock(RedisConstants.LOCK_SHOP_KEY + id);
-            // 4.2 是否获取成功
-            if (!isLock) {
-                // 4.3 失败，休眠重新获取
-                Thread.sleep(50);
-                witchLock(id);
-            }
-
-            // 4.4 成功，查询数据库
-            // 4.5 查询数据库
-            shop = shopMapper.selectById(id);
-
-            // 5. 不存在，报错
-            if (shop == null) {
-                // 5.1 plus改进 ,存入空值，避免缓存穿透
-                stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-
-            }
-
-            // 6. 放入缓存
-            stringRedisTemplate.opsForValue().set(RedisConstants.CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 关闭锁
-            unlock(RedisConstants.LOCK_SHOP_KEY + id);
-        }
-
-
-        return shop;
+        // 同一节点并发未命中合并为一次加载，只有加载线程竞争redis互斥锁
+        return cacheClient.queryWithMutex(
+                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -221,27 +166,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
-    /**
-     * 给线程加锁
-     *
-     * @param id
-     * @return
-     */
-    private boolean tryLock(String id) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(RedisConstants.LOCK_SHOP_KEY + id, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-
-    /**
-     * 解开线程锁
-     *
-     * @param id
-     */
-    private void unlock(String id) {
-        stringRedisTemplate.delete(RedisConstants.LOCK_SHOP_KEY + id);
-    }
-
     /**
      * 根据商铺id更新
      *
@@ -256,11 +180,52 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 2. 事务提交后删除缓存并通知各节点删除本地缓存，延迟后再删除一次
+        if (isHashLayout()) {
+            cacheClient.delete(ShopHashCache.keysOf(shop.getId()));
+        } else {
+            cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        }
         return Result.ok();
     }
 
+    /**
+     * 商铺销量、评论数自增
+     *
+     * @param field ShopHashCache.SOLD / ShopHashCache.COMMENTS
+     */
+    @Override
+    public Result incrementCounter(Long id, String field, int delta) {
+        if (!ShopHashCache.COUNTERS.contains(field)) {
+            return Result.fail("不支持的字段");
+        }
+        if (delta == 0 || Math.abs(delta) > SystemConstants.MAX_COUNTER_DELTA) {
+            return Result.fail("增量超出范围");
+        }
+        // 1. 更新数据库，单条语句不开启事务，提交后再更新缓存
+        boolean success = update().setSql(field + " = " + field + " + " + delta).eq("id", id).update();
+        if (!success) {
+            return Result.fail("该店铺不存在");
+        }
+        // 2. hash结构直接自增对应字段，json结构查询最新数据覆盖逻辑过期缓存
+        if (isHashLayout()) {
+            shopHashCache.increment(id, field, delta);
+            return Result.ok();
+        }
+        Shop shop = getById(id);
+        if (shop == null) {
+            cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        } else {
+            cacheClient.replaceWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop,
+                    RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        return Result.ok();
+    }
+
+    private boolean isHashLayout() {
+        return "hash".equalsIgnoreCase(shopLayout);
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1 判断x,y是否传递
@@ -1,6 +1,9 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
@@ -8,28 +11,46 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillOrderStatus;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockManager;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
 
 /**
  * <p>
@@ -54,6 +75,12 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
     static {
@@ -63,79 +90,336 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
 
-    private static final ExecutorService seckill_order_executor = Executors.newSingleThreadExecutor();
+    /**
+     * 是否开启批量消费，一次读取多条订单，合并扣减库存、多行插入、批量ack
+     * 批量路径不加用户锁，不同消费者并发处理同一用户的订单时一人一单只由lua脚本保证，默认关闭
+     */
+    @Value("${hmdp.seckill.order.batch-enabled:false}")
+    private boolean batchEnabled;
+
+    /**
+     * 每次 XREADGROUP 最多读取的订单数
+     */
+    @Value("${hmdp.seckill.order.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 每次 XREADGROUP 最长阻塞等待时间，毫秒
+     */
+    @Value("${hmdp.seckill.order.batch-wait:2000}")
+    private long batchWait;
+
+    /**
+     * 消费者组名
+     */
+    @Value("${hmdp.seckill.order.group:g1}")
+    private String groupName;
+
+    /**
+     * 消费者名前缀，默认取 主机名:端口，每个工作线程再追加序号
+     */
+    @Value("${hmdp.seckill.order.consumer-name:}")
+    private String consumerName;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    /**
+     * 每个节点的消费线程数，阻塞读取时每个线程独占一个redis连接，不要超过连接池大小
+     */
+    @Value("${hmdp.seckill.order.consumer-threads:2}")
+    private int consumerThreads;
+
+    /**
+     * 订单流分区数，大于1时lua脚本按 voucherId 取模写入 stream.orders.{n}
+     */
+    @Value("${hmdp.seckill.order.stream-partitions:1}")
+    private int streamPartitions;
+
+    /**
+     * pending消息空闲超过该时间才认为消费者已失效，可以被接管，毫秒
+     */
+    @Value("${hmdp.seckill.order.recovery-min-idle:60000}")
+    private long recoveryMinIdle;
+
+    /**
+     * 每个流每次最多接管的pending消息数
+     */
+    @Value("${hmdp.seckill.order.recovery-batch:100}")
+    private int recoveryBatch;
+
+    /**
+     * 最大投递次数，超过后转入死信流 stream.orders.dlq
+     */
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private int maxDeliveries;
+
+    /**
+     * 一人一单的购买用户记录方式：set 使用 SADD/SISMEMBER，bitmap 使用 SETBIT/GETBIT
+     */
+    @Value("${hmdp.seckill.buyer-mode:set}")
+    private String buyerMode;
+
+    /**
+     * bitmap 模式每个分片的位数，userId / chunkBits 决定分片，稀疏的id区间只会创建用到的分片
+     */
+    @Value("${hmdp.seckill.bitmap-chunk-bits:1048576}")
+    private long bitmapChunkBits;
+
+    private ExecutorService seckill_order_executor;
+
+    /**
+     * 接管pending消息使用的消费者
+     */
+    private VoucherOrderHandler recoveryHandler;
 
     @PostConstruct
     private void init() {
-        seckill_order_executor.submit(new VoucherOrderHandler());
+        // 1 启动时创建消费者组
+        for (int i = 0; i < streamPartitions; i++) {
+            createGroupIfAbsent(streamKey(i));
+        }
+        // 2 实例标识作为消费者名，每个线程一个消费者
+        String instanceName = StrUtil.isNotBlank(consumerName) ? consumerName : defaultInstanceName();
+        seckill_order_executor = Executors.newFixedThreadPool(consumerThreads);
+        for (int i = 0; i < consumerThreads; i++) {
+            seckill_order_executor.submit(new VoucherOrderHandler(Consumer.from(groupName, instanceName + "-" + i)));
+        }
+        recoveryHandler = new VoucherOrderHandler(Consumer.from(groupName, instanceName + "-recovery"));
+        log.info("订单消费者启动, group={}, consumer={}, threads={}, partitions={}",
+                groupName, instanceName, consumerThreads, streamPartitions);
+    }
+
+    /**
+     * 定时接管空闲的pending消息（包括已宕机节点的消息），超过投递次数的转入死信流
+     * XPENDING 取得空闲时间和投递次数，XCLAIM 接管并累加投递次数
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.order.recovery-interval:30000}")
+    public void recoverPendingOrders() {
+        for (int i = 0; i < streamPartitions; i++) {
+            String stream = streamKey(i);
+            try {
+                recoverPendingOrders(stream);
+            } catch (Exception e) {
+                log.error("接管pending订单异常, stream={}", stream, e);
+            }
+        }
     }
 
-    String queueName = "stream.orders";
+    private void recoverPendingOrders(String stream) {
+        // 1 XPENDING stream group - + count
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream()
+                .pending(stream, groupName, Range.unbounded(), recoveryBatch);
+        List<RecordId> retryIds = new ArrayList<>();
+        Map<RecordId, Long> deadIds = new LinkedHashMap<>();
+        for (PendingMessage pendingMessage : pendingMessages) {
+            // 1.1 还在正常处理中
+            if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < recoveryMinIdle) {
+                continue;
+            }
+            // 1.2 超过投递次数
+            if (pendingMessage.getTotalDeliveryCount() >= maxDeliveries) {
+                deadIds.put(pendingMessage.getId(), pendingMessage.getTotalDeliveryCount());
+            } else {
+                retryIds.add(pendingMessage.getId());
+            }
+        }
+        // 2 毒消息转入死信流
+        if (!deadIds.isEmpty()) {
+            moveToDeadLetter(stream, deadIds);
+        }
+        if (retryIds.isEmpty()) {
+            return;
+        }
+        // 3 XCLAIM 接管，其他节点同时接管时只有一个成功
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                stream, groupName, recoveryHandler.consumer.getName(),
+                Duration.ofMillis(recoveryMinIdle), retryIds.toArray(new RecordId[0]));
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        log.info("接管pending订单, stream={}, count={}", stream, records.size());
+        // 4 逐条重新下单并ack，失败的留在pending list等待下次接管，不影响同批其他订单
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                recoveryHandler.handleRecords(Collections.singletonList(record));
+            } catch (Exception e) {
+                log.error("接管的订单处理失败，等待下次接管, stream={}, id={}", stream, record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 转入死信流：先接管取得消息内容，写入 stream.orders.dlq，再从原消费者组ack
+     * 已经落库的订单（落库后ack失败）不转入死信流，直接ack并标记已落库
+     */
+    private void moveToDeadLetter(String stream, Map<RecordId, Long> deadIds) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                stream, groupName, recoveryHandler.consumer.getName(),
+                Duration.ofMillis(recoveryMinIdle), deadIds.keySet().toArray(new RecordId[0]));
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        Set<Long> orderIds = records.stream()
+                .map(record -> Long.valueOf(String.valueOf(record.getValue().get("id"))))
+                .collect(Collectors.toSet());
+        Set<Long> persistedIds = query().select("id").in("id", orderIds).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> persistedOrders = new ArrayList<>();
+        List<VoucherOrder> failedOrders = new ArrayList<>();
+        List<RecordId> claimedIds = new ArrayList<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            claimedIds.add(record.getId());
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            if (persistedIds.contains(voucherOrder.getId())) {
+                persistedOrders.add(voucherOrder);
+                continue;
+            }
+            Map<Object, Object> value = new LinkedHashMap<>(record.getValue());
+            value.put("originStream", stream);
+            value.put("originId", record.getId().getValue());
+            value.put("deliveries", String.valueOf(deadIds.get(record.getId())));
+            stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(SECKILL_ORDER_DLQ_KEY).ofMap(value));
+            failedOrders.add(voucherOrder);
+        }
+        stringRedisTemplate.opsForStream().acknowledge(stream, groupName, claimedIds.toArray(new RecordId[0]));
+        updateOrderStatus(persistedOrders, SeckillOrderStatus.PERSISTED);
+        updateOrderStatus(failedOrders, SeckillOrderStatus.FAILED);
+        if (!failedOrders.isEmpty()) {
+            log.error("订单超过最大投递次数，转入死信流, stream={}, orderIds={}", stream,
+                    failedOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        seckill_order_executor.shutdownNow();
+    }
+
+    /**
+     * 订单流key，分区时为 stream.orders.{partition}
+     */
+    private String streamKey(int partition) {
+        return streamPartitions > 1 ? SECKILL_ORDER_STREAM_KEY + "." + partition : SECKILL_ORDER_STREAM_KEY;
+    }
+
+    private StreamOffset<String>[] streamOffsets(ReadOffset readOffset) {
+        @SuppressWarnings("unchecked")
+        StreamOffset<String>[] offsets = new StreamOffset[streamPartitions];
+        for (int i = 0; i < streamPartitions; i++) {
+            offsets[i] = StreamOffset.create(streamKey(i), readOffset);
+        }
+        return offsets;
+    }
+
+    /**
+     * XGROUP CREATE key group 0 MKSTREAM，组已存在时忽略
+     */
+    private void createGroupIfAbsent(String key) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(key.getBytes(StandardCharsets.UTF_8), groupName, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private String defaultInstanceName() {
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + serverPort;
+        } catch (UnknownHostException e) {
+            return UUID.randomUUID().toString(true);
+        }
+    }
+
+    /**
+     * 处理异常后暂停时间，避免redis或数据库不可用时空转
+     */
+    private static final long ERROR_BACKOFF_MILLIS = 1000L;
 
     private class VoucherOrderHandler implements Runnable {
+        private final Consumer consumer;
+
+        VoucherOrderHandler(Consumer consumer) {
+            this.consumer = consumer;
+        }
+
         @Override
         public void run() {
-            while (true) {
+            while (!Thread.currentThread().isInterrupted()) {
                 // 获取订单信息
                 try {
-                    // 1. 获取消息队列中的订单信息  xgroup g1 c1 count 1 block 2000 streams streams.order >
+                    // 1. 获取消息队列中的订单信息  xgroup g1 c1 count n block 2000 streams streams.order >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
+                            consumer,
+                            StreamReadOptions.empty().count(readCount()).block(Duration.ofMillis(batchWait)),
+                            streamOffsets(ReadOffset.lastConsumed())
                     );
                     // 2. 判断消息获取是否成功
                     if (list == null || list.isEmpty()) {
                         // 2.1 失败，没有消息，继续下一次循环
                         continue;
                     }
-                    // 3 成功，可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    // 4 ack确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    // 3 成功，可以下单并ack确认
+                    handleRecords(list);
                 } catch (Exception e) {
-                    log.error("处理订单异常");
-                    handlePendingList();
+                    // 未ack的消息留在pending list，由 recoverPendingOrders 定时接管重试
+                    log.error("处理订单异常", e);
+                    try {
+                        Thread.sleep(ERROR_BACKOFF_MILLIS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
-                // 获取订单信息
-                try {
-                    // 1. 获取pending list中的订单信息  xgroup g1 c1 count 1  streams streams.order 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
-                    // 2. 判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 2.1 失败，没有padding list
-                        break;
-                    }
-                    // 3 成功，可以下单
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    // 4 ack确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+        private int readCount() {
+            return batchEnabled ? batchSize : 1;
+        }
 
-                } catch (Exception e) {
-                    log.error("处理订单异常");
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
-                }
+        private void handleRecords(List<MapRecord<String, Object, Object>> list) {
+            if (batchEnabled) {
+                handleVoucherOrderBatch(list);
+                return;
+            }
+            // 多个分区时每个流各返回一条
+            for (MapRecord<String, Object, Object> record : list) {
+                Map<Object, Object> value = record.getValue();
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+                // 异常时不ack，状态保持排队中，由 recoverPendingOrders 重试
+                handleVoucherOrder(voucherOrder);
+                // ack确认
+                stringRedisTemplate.opsForStream().acknowledge(record.getStream(), groupName, record.getId());
             }
+        }
 
+        /**
+         * 批量处理订单：按优惠券分组，每组一次扣减库存 + 多行插入，最后每个流整批ack
+         */
+        private void handleVoucherOrderBatch(List<MapRecord<String, Object, Object>> list) {
+            // 1 解析订单
+            Map<String, List<RecordId>> recordIdsOfStream = new HashMap<>();
+            Map<Long, List<VoucherOrder>> ordersOfVoucher = new LinkedHashMap<>();
+            for (MapRecord<String, Object, Object> record : list) {
+                recordIdsOfStream.computeIfAbsent(record.getStream(), k -> new ArrayList<>()).add(record.getId());
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                ordersOfVoucher.computeIfAbsent(voucherOrder.getVoucherId(), k -> new ArrayList<>()).add(voucherOrder);
+            }
+            // 2 每个优惠券一个事务，超过限购或数据库库存不足的订单不会再成功，直接标记失败
+            for (Map.Entry<Long, List<VoucherOrder>> entry : ordersOfVoucher.entrySet()) {
+                // 异常时未ack，状态保持排队中，之后从pending list重试，超过投递次数才标记失败
+                List<VoucherOrder> rejected = proxy.createVoucherOrderBatch(entry.getKey(), entry.getValue());
+                List<VoucherOrder> persisted = new ArrayList<>(entry.getValue());
+                persisted.removeAll(rejected);
+                updateOrderStatus(persisted, SeckillOrderStatus.PERSISTED);
+                updateOrderStatus(rejected, SeckillOrderStatus.FAILED);
+            }
+            // 3 整批ack确认
+            recordIdsOfStream.forEach((stream, recordIds) -> stringRedisTemplate.opsForStream()
+                    .acknowledge(stream, groupName, recordIds.toArray(new RecordId[0])));
         }
    /* private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
 
@@ -160,12 +444,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             RLock lock = redissonClient.getLock("lock:order:" + userId);
             boolean isLock = lock.tryLock();
             if (!isLock) {
-                log.error("不允许重复下单");
-                return;
+                // 同一用户的其他订单正在处理，稍后重试，一人一单由 createVoucherOrder 校验
+                throw new IllegalStateException("用户订单正在处理, userId=" + userId);
             }
             try {
                 // 获取代理对象(事务)
-                proxy.createVoucherOrder(voucherOrder);
+                boolean created = proxy.createVoucherOrder(voucherOrder);
+                updateOrderStatus(Collections.singletonList(voucherOrder),
+                        created ? SeckillOrderStatus.PERSISTED : SeckillOrderStatus.FAILED);
             } finally {
                 // 释放锁
                 lock.unlock();
@@ -174,8 +460,61 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
 
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    /**
+     * 订单状态hash的字段，lua脚本写入排队中状态时同时写入下单用户
+     */
+    private static final String STATUS_FIELD = "status";
+    private static final String USER_ID_FIELD = "userId";
+
+    /**
+     * 批量更新订单处理状态，一次pipeline写入
+     * 失败状态只在订单最终不会创建时写入：超过限购、数据库库存不足、超过最大投递次数转入死信流
+     */
+    private void updateOrderStatus(Collection<VoucherOrder> voucherOrders, SeckillOrderStatus status) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] field = STATUS_FIELD.getBytes(StandardCharsets.UTF_8);
+                byte[] value = status.name().getBytes(StandardCharsets.UTF_8);
+                for (VoucherOrder voucherOrder : voucherOrders) {
+                    byte[] key = (SECKILL_ORDER_STATUS_KEY + voucherOrder.getId()).getBytes(StandardCharsets.UTF_8);
+                    connection.hashCommands().hSet(key, field, value);
+                    connection.hashCommands().hSet(key, USER_ID_FIELD.getBytes(StandardCharsets.UTF_8),
+                            String.valueOf(voucherOrder.getUserId()).getBytes(StandardCharsets.UTF_8));
+                    connection.keyCommands().expire(key, TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 状态只用于查询，失败不影响下单
+            log.error("更新订单状态失败, status={}", status, e);
+        }
+    }
+
+    /**
+     * 查询秒杀订单处理状态
+     *
+     * @param orderId 订单id
+     * @return QUEUED / PERSISTED / FAILED，只能查询当前用户的订单
+     */
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        List<Object> values = stringRedisTemplate.opsForHash()
+                .multiGet(SECKILL_ORDER_STATUS_KEY + orderId, Arrays.asList(STATUS_FIELD, USER_ID_FIELD));
+        Object status = values.get(0);
+        Object userId = values.get(1);
+        if (status == null || userId == null || !userId.equals(UserHolder.getUser().getId().toString())) {
+            return Result.fail("订单不存在或状态已过期");
+        }
+        return Result.ok(status);
+    }
+
     /**
      * 优惠券秒杀
      *
@@ -184,28 +523,56 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0 本节点已知售罄，直接返回
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         Long userId = UserHolder.getUser().getId();
         long orderId = redisIdWorker.nextId("order");
+        // 执行脚本期间补充了库存时，这次的售罄结果不再生效
+        long soldOutVersion = seckillSoldOutRegistry.version(voucherId);
         // 1 执行lua脚本
         Long result = stringRedisTemplate.execute(
                 SECKILL_SCRIPT,
                 Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), String.valueOf(streamPartitions),
+                String.valueOf(seckillStockManager.getSegments()),
+                String.valueOf(TimeUnit.MINUTES.toSeconds(SECKILL_ORDER_STATUS_TTL)),
+                buyerMode, String.valueOf(bitmapChunkBits)
         );
         // 2 判断结果是否为0
         int r = result.intValue();
         // 3 不为0，没有购买资格
         if (r != 0) {
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            if (r == 1) {
+                // 3.1 库存不足，标记售罄并通知其他节点
+                seckillSoldOutRegistry.markSoldOut(voucherId, soldOutVersion);
+            }
+            return Result.fail(seckillFailMessage(r));
         }
 
-        // 获取对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
         // 5 返回订单id
         return Result.ok(orderId);
     }
 
+    /**
+     * lua脚本返回码对应的提示
+     */
+    private static String seckillFailMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            default:
+                return "下单失败";
+        }
+    }
+
     /*@Override
     public Result seckillVoucher(Long voucherId) {
         Long userId = UserHolder.getUser().getId();
@@ -334,13 +701,24 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
 
     }*/
+    /**
+     * 创建单个订单
+     *
+     * @return 是否创建成功，超过限购或库存不足返回false
+     */
+    @Override
     @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
+        // 7.1 已经落库，消息重复投递
+        if (getById(voucherOrder.getId()) != null) {
+            return true;
+        }
         // 7.2 判断用户一人一单
         Long userId = voucherOrder.getUserId();
         int count = Math.toIntExact(query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count());
-        if (count > 0) {
-            log.error("不能重复购买");
+        if (count >= limitPerUser(voucherOrder.getVoucherId())) {
+            log.error("不能重复购买, userId={}, voucherId={}", userId, voucherOrder.getVoucherId());
+            return false;
         }
         // 7. 库存足够，库存减少
         boolean flag = seckillVoucherService.update()
@@ -351,10 +729,117 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
 
         if (!flag) {
-            log.error("库存不足");
+            log.error("库存不足, voucherId={}", voucherOrder.getVoucherId());
+            return false;
         }
 
         save(voucherOrder);
+        return true;
+    }
+
+    /**
+     * 批量创建同一优惠券的订单
+     *
+     * @param voucherId     优惠券id
+     * @param voucherOrders 该优惠券的一批订单
+     * @return 超过限购或库存不足、未创建的订单
+     */
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrderBatch(Long voucherId, List<VoucherOrder> voucherOrders) {
+        // 1 过滤已经落库的订单，消息重复投递时保证幂等
+        Map<Long, VoucherOrder> orderMap = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            orderMap.putIfAbsent(voucherOrder.getId(), voucherOrder);
+        }
+        List<Long> existIds = query().select("id").in("id", orderMap.keySet()).list()
+                .stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        existIds.forEach(orderMap::remove);
+        if (orderMap.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 2 一人一单：数据库中已有订单数 + 本批之前的订单数不能超过限购
+        List<VoucherOrder> orders = new ArrayList<>(orderMap.values());
+        List<VoucherOrder> rejected = rejectOverLimit(orders,
+                countOrdersOfUsers(voucherId, orderMap.values()), limitPerUser(voucherId));
+        if (orders.isEmpty()) {
+            return rejected;
+        }
+        // 3 一次扣减 k 个库存  stock = stock - k
+        int k = orders.size();
+        boolean flag = seckillVoucherService.update()
+                .setSql("stock = stock - " + k)
+                .eq("voucher_id", voucherId)
+                .ge("stock", k)             // where id = ? and stock >= k
+                .update();
+        if (!flag) {
+            // 3.1 库存不足k个，逐个扣减，扣减失败的订单不再创建
+            log.error("库存不足, voucherId={}, count={}", voucherId, k);
+            List<VoucherOrder> created = new ArrayList<>(k);
+            boolean soldOut = false;
+            for (VoucherOrder voucherOrder : orders) {
+                soldOut = soldOut || !seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", voucherId)
+                        .gt("stock", 0)
+                        .update();
+                if (soldOut) {
+                    rejected.add(voucherOrder);
+                } else {
+                    created.add(voucherOrder);
+                }
+            }
+            orders = created;
+        }
+        // 4 多行插入
+        if (!orders.isEmpty()) {
+            getBaseMapper().insertBatch(orders);
+        }
+        return rejected;
+    }
+
+    /**
+     * 按顺序累加每个用户已有订单数，超过限购的订单从 orders 中移出
+     *
+     * @param boughtOfUser 数据库中已有的订单数，userId -> count
+     * @return 超过限购的订单
+     */
+    static List<VoucherOrder> rejectOverLimit(List<VoucherOrder> orders, Map<Long, Long> boughtOfUser, int limit) {
+        Map<Long, Long> bought = new HashMap<>(boughtOfUser);
+        List<VoucherOrder> rejected = new ArrayList<>();
+        orders.removeIf(voucherOrder -> {
+            if (bought.merge(voucherOrder.getUserId(), 1L, Long::sum) <= limit) {
+                return false;
+            }
+            log.error("不能重复购买, userId={}, voucherId={}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            rejected.add(voucherOrder);
+            return true;
+        });
+        return rejected;
+    }
+
+    /**
+     * 这批用户在该优惠券已有的订单数，userId -> count
+     */
+    private Map<Long, Long> countOrdersOfUsers(Long voucherId, Collection<VoucherOrder> voucherOrders) {
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        List<Map<String, Object>> rows = getBaseMapper().selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("user_id", "count(*) AS cnt")
+                .eq("voucher_id", voucherId).in("user_id", userIds)
+                .groupBy("user_id"));
+        Map<Long, Long> counts = new HashMap<>(userIds.size() * 2);
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("user_id")).longValue(), ((Number) row.get("cnt")).longValue());
+        }
+        return counts;
+    }
+
+    /**
+     * 每人限购数量，秒杀元数据中没有时默认1
+     */
+    private int limitPerUser(Long voucherId) {
+        Object limit = stringRedisTemplate.opsForHash().get(SECKILL_VOUCHER_KEY + voucherId, "limit");
+        return limit == null ? 1 : Integer.parseInt(limit.toString());
     }
 
 }
@@ -8,12 +8,21 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockManager;
+import com.hmdp.utils.SeckillStockReconciler;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -32,6 +41,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -53,7 +71,68 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 保存秒杀到redis里面
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY +voucher.getId(),voucher.getStock().toString());
+        // 保存秒杀到redis里面，按分段拆分库存
+        seckillStockManager.initStock(voucher.getId(), voucher.getStock());
+        // 保存秒杀时间和限购，lua脚本直接校验，不再查询数据库
+        saveSeckillMetaToRedis(seckillVoucher, voucher.getLimitPerUser());
+    }
+
+    /**
+     * 秒杀元数据写入 seckill:voucher:{id} hash，时间为毫秒时间戳
+     */
+    private void saveSeckillMetaToRedis(SeckillVoucher seckillVoucher, Integer limitPerUser) {
+        Map<String, String> meta = new HashMap<>(4);
+        meta.put("begin", String.valueOf(toEpochMilli(seckillVoucher.getBeginTime())));
+        meta.put("end", String.valueOf(toEpochMilli(seckillVoucher.getEndTime())));
+        meta.put("limit", String.valueOf(limitPerUser == null || limitPerUser < 1 ? 1 : limitPerUser));
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_VOUCHER_KEY + seckillVoucher.getVoucherId(), meta);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充库存数量必须大于0");
+        }
+        // 1 数据库加库存
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2 事务提交后redis加库存并清除各节点售罄标记，回滚时都不生效
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                seckillStockManager.addStock(voucherId, count);
+                seckillSoldOutRegistry.reset(voucherId);
+            }
+        });
+        return Result.ok();
+    }
+
+    @Override
+    public Result querySeckillStock(Long voucherId) {
+        // 各分段库存及汇总
+        List<Long> segmentStocks = seckillStockManager.segmentStocks(voucherId);
+        Map<String, Object> stock = new HashMap<>(2);
+        stock.put("total", segmentStocks.stream().mapToLong(Long::longValue).sum());
+        stock.put("segments", segmentStocks);
+        return Result.ok(stock);
+    }
+
+    @Override
+    public Result reconcileSeckillStock(Boolean refresh) {
+        // 默认返回上次定时对账结果，refresh 时立即手动对账
+        if (Boolean.TRUE.equals(refresh)) {
+            return Result.ok(seckillStockReconciler.reconcile(true));
+        }
+        return Result.ok(seckillStockReconciler.getLastReport());
     }
 }
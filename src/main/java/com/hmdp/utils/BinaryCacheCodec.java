@@ -0,0 +1,442 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONException;
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编解码，按字段名排序反射读写实体字段，不写字段名
+ * 格式：魔数 | 版本 | 标志位 | [逻辑过期时间 | 重建耗时(v2)] | 字段结构指纹 | 字段值...
+ * 实体字段增删改后指纹变化，旧数据解码返回null，按未命中重新加载
+ * 数据被截断或损坏时解码同样返回null，不抛出越界等异常
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * json以 { " [ 或数字开头，不会与魔数冲突
+     */
+    public static final byte MAGIC = (byte) 0xB7;
+
+    public static final byte VERSION = 2;
+
+    private static final int FLAG_LOGICAL = 1;
+    private static final int FLAG_NULL = 1 << 1;
+    private static final int FLAG_JSON = 1 << 2;
+
+    private static final int KIND_LONG = 1;
+    private static final int KIND_INT = 2;
+    private static final int KIND_DOUBLE = 3;
+    private static final int KIND_BOOLEAN = 4;
+    private static final int KIND_STRING = 5;
+    private static final int KIND_DATE_TIME = 6;
+    private static final int KIND_OTHER = 7;
+
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length > 0 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Writer writer = new Writer();
+        writeHeader(writer, 0, value);
+        writeValue(writer, value);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Reader reader = new Reader(bytes);
+            int flags = readHeader(reader);
+            if (flags < 0) {
+                return null;
+            }
+            T value = readValue(reader, flags, type);
+            // 有多余的字节说明数据已损坏
+            return reader.remaining() == 0 ? value : null;
+        } catch (IndexOutOfBoundsException | DateTimeException | JSONException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Writer writer = new Writer();
+        writeHeader(writer, FLAG_LOGICAL, redisData.getData());
+        writeDateTime(writer, redisData.getExpireTime());
+        writer.writeVarLong(zigzag(redisData.getDelta() == null ? 0 : redisData.getDelta()));
+        writeValue(writer, redisData.getData());
+        return writer.toByteArray();
+    }
+
+    @Override
+    public RedisData decodeLogical(byte[] bytes, Class<?> type) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Reader reader = new Reader(bytes);
+            int flags = readHeader(reader);
+            if (flags < 0 || (flags & FLAG_LOGICAL) == 0) {
+                return null;
+            }
+            RedisData redisData = new RedisData();
+            redisData.setExpireTime(readDateTime(reader));
+            if (reader.version >= 2) {
+                redisData.setDelta(unzigzag(reader.readVarLong()));
+            }
+            if ((flags & FLAG_NULL) == 0) {
+                Object data = readValue(reader, flags, type);
+                if (data == null) {
+                    return null;
+                }
+                redisData.setData(data);
+            }
+            return reader.remaining() == 0 ? redisData : null;
+        } catch (IndexOutOfBoundsException | DateTimeException | JSONException e) {
+            return null;
+        }
+    }
+
+    private void writeHeader(Writer writer, int flags, Object value) {
+        if (value == null) {
+            flags |= FLAG_NULL;
+        } else if (!isBean(value.getClass())) {
+            flags |= FLAG_JSON;
+        }
+        writer.write(MAGIC);
+        writer.write(VERSION);
+        writer.write(flags);
+    }
+
+    /**
+     * @return 标志位，版本不支持时返回-1
+     */
+    private int readHeader(Reader reader) {
+        if (reader.read() != MAGIC) {
+            return -1;
+        }
+        reader.version = reader.read();
+        if (reader.version < 1 || reader.version > VERSION) {
+            return -1;
+        }
+        return reader.read() & 0xFF;
+    }
+
+    private void writeValue(Writer writer, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (!isBean(value.getClass())) {
+            writer.writeString(JSONUtil.toJsonStr(value));
+            return;
+        }
+        Schema schema = schemaOf(value.getClass());
+        writer.writeInt(schema.fingerprint);
+        try {
+            for (int i = 0; i < schema.fields.length; i++) {
+                writeField(writer, schema.kinds[i], schema.fields[i].get(value));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <T> T readValue(Reader reader, int flags, Class<T> type) {
+        if ((flags & FLAG_NULL) != 0) {
+            return null;
+        }
+        if ((flags & FLAG_JSON) != 0) {
+            return JSONUtil.toBean(reader.readString(), type);
+        }
+        Schema schema = schemaOf(type);
+        if (reader.readInt() != schema.fingerprint) {
+            return null;
+        }
+        try {
+            T value = type.cast(schema.constructor.newInstance());
+            for (int i = 0; i < schema.fields.length; i++) {
+                Object fieldValue = readField(reader, schema.kinds[i], schema.fields[i]);
+                if (fieldValue != null) {
+                    schema.fields[i].set(value, fieldValue);
+                }
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeField(Writer writer, int kind, Object value) {
+        if (value == null) {
+            writer.write(0);
+            return;
+        }
+        writer.write(1);
+        switch (kind) {
+            case KIND_LONG:
+                writer.writeVarLong(zigzag((Long) value));
+                break;
+            case KIND_INT:
+                writer.writeVarLong(zigzag((Integer) value));
+                break;
+            case KIND_DOUBLE:
+                writer.writeLong(Double.doubleToRawLongBits((Double) value));
+                break;
+            case KIND_BOOLEAN:
+                writer.write((Boolean) value ? 1 : 0);
+                break;
+            case KIND_STRING:
+                writer.writeString((String) value);
+                break;
+            case KIND_DATE_TIME:
+                writeDateTime(writer, (LocalDateTime) value);
+                break;
+            default:
+                writer.writeString(JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private Object readField(Reader reader, int kind, Field field) {
+        if (reader.read() == 0) {
+            return null;
+        }
+        switch (kind) {
+            case KIND_LONG:
+                return unzigzag(reader.readVarLong());
+            case KIND_INT:
+                return (int) unzigzag(reader.readVarLong());
+            case KIND_DOUBLE:
+                return Double.longBitsToDouble(reader.readLong());
+            case KIND_BOOLEAN:
+                return reader.read() != 0;
+            case KIND_STRING:
+                return reader.readString();
+            case KIND_DATE_TIME:
+                return readDateTime(reader);
+            default:
+                return JSONUtil.toBean(reader.readString(), field.getType());
+        }
+    }
+
+    private void writeDateTime(Writer writer, LocalDateTime time) {
+        if (time == null) {
+            writer.write(0);
+            return;
+        }
+        writer.write(1);
+        writer.writeVarLong(zigzag(time.toEpochSecond(ZoneOffset.UTC)));
+        writer.writeVarLong(time.getNano());
+    }
+
+    private LocalDateTime readDateTime(Reader reader) {
+        if (reader.read() == 0) {
+            return null;
+        }
+        long seconds = unzigzag(reader.readVarLong());
+        int nanos = (int) reader.readVarLong();
+        return LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static boolean isBean(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && !type.isEnum()
+                && !type.getName().startsWith("java.")
+                && !Collection.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type);
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 实体字段结构，字段按名称排序，指纹由字段名与类型计算
+     */
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final int[] kinds;
+        private final int fingerprint;
+
+        Schema(Class<?> type) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("缓存类型缺少无参构造: " + type.getName(), e);
+            }
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            fields = list.toArray(new Field[0]);
+            kinds = new int[fields.length];
+            StringBuilder signature = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                kinds[i] = kindOf(fields[i].getType());
+                signature.append(fields[i].getName()).append(':').append(fields[i].getType().getName()).append(';');
+            }
+            fingerprint = signature.toString().hashCode();
+        }
+
+        private static int kindOf(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return KIND_LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return KIND_INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return KIND_DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return KIND_BOOLEAN;
+            }
+            if (type == String.class) {
+                return KIND_STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return KIND_DATE_TIME;
+            }
+            return KIND_OTHER;
+        }
+    }
+
+    private static class Writer {
+        private byte[] buf = new byte[128];
+        private int pos;
+
+        void write(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            for (int i = 24; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (value >>> i);
+            }
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buf[pos++] = (byte) (value >>> i);
+            }
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buf;
+        private int pos;
+        private int version;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte read() {
+            return buf[pos++];
+        }
+
+        int remaining() {
+            return buf.length - pos;
+        }
+
+        int readInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (buf[pos++] & 0xFF);
+            }
+            return value;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buf[pos++] & 0xFF);
+            }
+            return value;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readString() {
+            int length = (int) readVarLong();
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
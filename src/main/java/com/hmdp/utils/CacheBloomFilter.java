@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 缓存穿透防护：按缓存key前缀维护数据库已有id的布隆过滤器
+ * 启动时按id游标分页读取构建，新增数据时写入并通知其他节点，定时重建后整体替换
+ * 过滤器记录已从数据库读取到的最大id作为水位，大于水位的id一律放行查询数据库，并定时增量读取新id推进水位，
+ * 新增通知丢失或节点晚于通知启动时也不会把新数据误判为不存在
+ * 过滤器未构建完成或构建失败时一律放行
+ */
+@Slf4j
+@Component
+public class CacheBloomFilter implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Value("${hmdp.cache.bloom.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 误判率
+     */
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double fpp;
+
+    /**
+     * 预留的新增空间，按现有数量的比例
+     */
+    @Value("${hmdp.cache.bloom.headroom:1.0}")
+    private double headroom;
+
+    @Value("${hmdp.cache.bloom.page-size:1000}")
+    private int pageSize;
+
+    /**
+     * 缓存key前缀 -> id来源
+     */
+    private final Map<String, BaseMapper<?>> sources = new LinkedHashMap<>();
+
+    private final Map<String, IdFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 重建期间新增的id，新过滤器替换前补写
+     */
+    private final Map<String, Queue<Long>> pendingAdds = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        sources.put(CACHE_SHOP_KEY, shopMapper);
+        sources.put(CACHE_BLOG_KEY, blogMapper);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 判断id是否可能存在，未注册前缀或过滤器不可用时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        if (!enabled || !(id instanceof Number)) {
+            return true;
+        }
+        IdFilter filter = filters.get(keyPrefix);
+        return filter == null || filter.mightContain(((Number) id).longValue());
+    }
+
+    /**
+     * 新增数据后调用，写入本地过滤器并通知其他节点
+     */
+    public void add(String keyPrefix, Long id) {
+        if (!enabled || id == null || !sources.containsKey(keyPrefix)) {
+            return;
+        }
+        addLocal(keyPrefix, id);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL, keyPrefix + id);
+        } catch (Exception e) {
+            log.error("发送布隆过滤器新增通知失败, prefix={}, id={}", keyPrefix, id, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String prefix : sources.keySet()) {
+            String id = StrUtil.removePrefix(key, prefix);
+            if (id.length() < key.length() && StrUtil.isNumeric(id)) {
+                addLocal(prefix, Long.valueOf(id));
+                return;
+            }
+        }
+    }
+
+    private void addLocal(String keyPrefix, Long id) {
+        Queue<Long> pending = pendingAdds.get(keyPrefix);
+        if (pending != null) {
+            pending.add(id);
+        }
+        IdFilter filter = filters.get(keyPrefix);
+        if (filter != null) {
+            filter.bloomFilter.put(id);
+        }
+    }
+
+    /**
+     * 增量读取水位之后新增的id，不依赖新增通知
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.bloom.sync-interval:5000}")
+    public void syncNewIds() {
+        if (!enabled) {
+            return;
+        }
+        filters.forEach((prefix, filter) -> {
+            try {
+                BaseMapper<?> mapper = sources.get(prefix);
+                while (true) {
+                    List<Object> ids = selectIds(mapper, filter.watermark);
+                    if (ids.isEmpty()) {
+                        break;
+                    }
+                    for (Object id : ids) {
+                        filter.bloomFilter.put(((Number) id).longValue());
+                    }
+                    // 先写入再推进水位
+                    filter.watermark = ((Number) ids.get(ids.size() - 1)).longValue();
+                    if (ids.size() < pageSize) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("布隆过滤器增量同步失败, prefix={}", prefix, e);
+            }
+        });
+    }
+
+    /**
+     * 定时重建，清除已删除的id并按当前数据量重新计算大小
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.bloom.rebuild-interval:3600000}",
+            fixedDelayString = "${hmdp.cache.bloom.rebuild-interval:3600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        sources.forEach((prefix, mapper) -> {
+            try {
+                long begin = System.currentTimeMillis();
+                BloomFilter filter = build(prefix, mapper).bloomFilter;
+                log.info("布隆过滤器构建完成, prefix={}, bits={}, hashes={}, cost={}ms",
+                        prefix, filter.bitSize(), filter.hashCount(), System.currentTimeMillis() - begin);
+            } catch (Exception e) {
+                log.error("布隆过滤器构建失败, prefix={}", prefix, e);
+            } finally {
+                pendingAdds.remove(prefix);
+            }
+        });
+    }
+
+    private IdFilter build(String prefix, BaseMapper<?> mapper) {
+        Queue<Long> pending = new ConcurrentLinkedQueue<>();
+        pendingAdds.put(prefix, pending);
+        // 1.按现有数量加预留空间确定大小
+        long count = mapper.selectCount(null);
+        BloomFilter filter = new BloomFilter(Math.max(1000, (long) (count * (1 + headroom))), fpp);
+        // 2.按id游标分页读取，避免一次加载全表
+        long lastId = 0;
+        while (true) {
+            List<Object> ids = selectIds(mapper, lastId);
+            for (Object id : ids) {
+                lastId = ((Number) id).longValue();
+                filter.put(lastId);
+            }
+            if (ids.size() < pageSize) {
+                break;
+            }
+        }
+        // 3.补写构建期间新增的id后替换，替换后再补写一次
+        pending.forEach(filter::put);
+        IdFilter idFilter = new IdFilter(filter, lastId);
+        filters.put(prefix, idFilter);
+        pending.forEach(filter::put);
+        return idFilter;
+    }
+
+    private <T> List<Object> selectIds(BaseMapper<T> mapper, long lastId) {
+        return mapper.selectObjs(new QueryWrapper<T>()
+                .select("id")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("limit " + pageSize));
+    }
+
+    /**
+     * 布隆过滤器与水位，水位以内的id都已写入过滤器
+     */
+    static class IdFilter {
+        final BloomFilter bloomFilter;
+        volatile long watermark;
+
+        IdFilter(BloomFilter bloomFilter, long watermark) {
+            this.bloomFilter = bloomFilter;
+            this.watermark = watermark;
+        }
+
+        /**
+         * 大于水位的id尚未读取过，不能判断为不存在
+         */
+        boolean mightContain(long id) {
+            return id > watermark || bloomFilter.mightContain(id);
+        }
+    }
+}
@@ -1,71 +1,264 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheTtlProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
     @Resource
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheRebuildExecutor rebuildExecutor;
+
+    @Resource
+    private CacheRebuildLock rebuildLock;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private CacheTtlProperties cacheTtlProperties;
+
+    @Resource
+    private RefreshAheadTracker refreshAheadTracker;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 等待缓存重建的最长时间与未收到通知时重新检查的间隔，毫秒
+     */
+    @Value("${hmdp.cache.mutex-wait:3000}")
+    private long mutexWait;
+
+    @Value("${hmdp.cache.mutex-recheck:200}")
+    private long mutexRecheck;
+
+    /**
+     * 本节点正在加载的key，同一个key并发未命中时共享同一次加载
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * 等待其他节点重建完成通知的key
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> rebuiltWaiters = new ConcurrentHashMap<>();
+
+    /**
+     * 逻辑过期缓存提前刷新，beta 越大越早刷新
+     */
+    @Value("${hmdp.cache.early-refresh.enabled:true}")
+    private boolean earlyRefreshEnabled;
+
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+
+    /**
+     * 热点key本地副本有效期，毫秒，后台每 refresh-interval 毫秒从redis刷新一次
+     */
+    @Value("${hmdp.cache.hot-key.replica-ttl:5000}")
+    private long replicaTtl;
+
+    /**
+     * 热点key -> 缓存值类型，用于后台刷新副本
+     */
+    private final ConcurrentHashMap<String, HotKeyType> hotKeyTypes = new ConcurrentHashMap<>();
+
+    /**
+     * 写入使用的编码 json / binary，读取时按魔数自动识别
+     */
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName;
+
+    private static final CacheCodec JSON_CODEC = new JsonCacheCodec();
+
+    private static final CacheCodec BINARY_CODEC = new BinaryCacheCodec();
+
+    private CacheCodec writeCodec = JSON_CODEC;
+
+    /**
+     * 剩余过期时间小于 ahead 毫秒的最近访问key，由后台每 interval 毫秒按 batch-size 分批重新加载
+     */
+    @Value("${hmdp.cache.refresh-ahead.ahead:60000}")
+    private long refreshAhead;
+
+    @Value("${hmdp.cache.refresh-ahead.batch-size:100}")
+    private int refreshBatchSize;
+
+    private static final byte[] EMPTY = new byte[0];
 
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init() {
+        if ("binary".equalsIgnoreCase(codecName)) {
+            writeCodec = BINARY_CODEC;
+        }
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+    }
+
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setBytes(key, encode(key, value), ttlMillis(key, time, unit), TimeUnit.MILLISECONDS);
+        localCache.put(key, value);
+    }
+
+    /**
+     * 写入空值，避免缓存穿透
+     */
+    private void setNull(String key) {
+        setBytes(key, EMPTY, ttlMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+        localCache.put(key, LocalCache.NULL_VALUE);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, 0L);
+    }
+
+    /**
+     * 数据已不存在时写入空值，不写入data为null的逻辑过期缓存，否则读取方会一直命中null而不再回源
+     *
+     * @param delta 本次重建耗时，毫秒，用于提前刷新
+     */
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long delta) {
+        if (value == null) {
+            setNull(key);
+            return;
+        }
         // 设置逻辑过期
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(LocalDateTime.now().plus(ttlMillis(key, time, unit), ChronoUnit.MILLIS));
+        redisData.setDelta(delta);
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setBytes(key, encodeLogical(key, redisData), null, null);
+        localCache.put(key, redisData);
+    }
+
+    /**
+     * 覆盖逻辑过期缓存，写入redis后再通知所有节点删除本地缓存
+     * 用于数据变化后需要保留缓存的场景，逻辑过期缓存被删除后只能同步加载
+     */
+    public void replaceWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit);
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 批量写入逻辑过期缓存，一次pipeline，不写本地缓存
+     * 每个key的逻辑过期时间单独抖动，预热写入的一批key不会同时过期
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                RedisData redisData = new RedisData();
+                redisData.setData(value);
+                redisData.setExpireTime(now.plus(ttlMillis(key, time, unit), ChronoUnit.MILLIS));
+                connection.stringCommands().set(rawKey(key), encodeLogical(key, redisData));
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 删除缓存，同时通知所有节点删除本地缓存
+     * 存在事务时在提交后删除，并在延迟后再删除一次，见 CacheInvalidator
+     */
+    public void delete(String... keys) {
+        cacheInvalidator.invalidate(keys);
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        // 布隆过滤器判断数据库中不存在，直接返回
+        if (!cacheBloomFilter.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+        recordAccess(key, type, false);
+        trackAccess(key, id, dbFallback, time, unit);
+        // 0.查询本地缓存
+        Object local = localCache.get(key);
+        if (local != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.L1_HIT);
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object cached = readRemote(key, type);
+        cacheMetrics.request(keyPrefix, cached == null ? CacheMetrics.MISS
+                : cached == LocalCache.NULL_VALUE ? CacheMetrics.NULL_HIT : CacheMetrics.L2_HIT);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+        if (cached != null) {
+            // 3.存在直接返回，命中空值返回null
+            return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
         }
 
         // 4.不存在，根据id查询数据库
+        long begin = System.nanoTime();
         R r = dbFallback.apply(id);
+        cacheMetrics.rebuild(keyPrefix, System.nanoTime() - begin);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setNull(key);
             // 返回错误信息
             return null;
         }
@@ -74,106 +267,636 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 批量查询，一次MGET查询redis，未命中的id一次查询数据库，结果通过pipeline写回redis
+     *
+     * @param dbBatchFallback 根据id集合查询数据库，返回 id -> 数据
+     * @return 与ids顺序一致，不存在的位置为null
+     */
+    public <R, ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbBatchFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        // 1.布隆过滤器与本地缓存，剩余的id去重后查询redis
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!cacheBloomFilter.mightContain(keyPrefix, id)) {
+                cacheMetrics.request(keyPrefix, CacheMetrics.BLOOM_REJECT);
+                continue;
+            }
+            trackAccess(keyPrefix + id, id, one -> {
+                Map<ID, R> loaded = dbBatchFallback.apply(Collections.singletonList(one));
+                return loaded == null ? null : loaded.get(one);
+            }, time, unit);
+            Object local = localCache.get(keyPrefix + id);
+            if (local == null) {
+                remoteIds.add(id);
+            } else {
+                cacheMetrics.request(keyPrefix, CacheMetrics.L1_HIT);
+                if (local != LocalCache.NULL_VALUE) {
+                    found.put(id, type.cast(local));
+                }
+            }
+        }
+        // 2.一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            List<byte[]> values = multiGetBytes(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                R r = bytes == null || bytes.length == 0 ? null : decode(keyPrefix, bytes, type);
+                if (r != null) {
+                    cacheMetrics.request(keyPrefix, CacheMetrics.L2_HIT);
+                    localCache.put(keys.get(i), r);
+                    found.put(remoteIds.get(i), r);
+                } else if (bytes != null && bytes.length == 0) {
+                    // 命中空值
+                    cacheMetrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+                    localCache.put(keys.get(i), LocalCache.NULL_VALUE);
+                } else {
+                    cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+                    missIds.add(remoteIds.get(i));
+                }
+            }
+        }
+        // 3.未命中的id一次查询数据库，pipeline写回redis，不存在的写入空值
+        if (!missIds.isEmpty()) {
+            long begin = System.nanoTime();
+            Map<ID, R> loaded = dbBatchFallback.apply(missIds);
+            cacheMetrics.rebuild(keyPrefix, System.nanoTime() - begin);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    R r = loaded == null ? null : loaded.get(id);
+                    String key = keyPrefix + id;
+                    if (r == null) {
+                        connection.stringCommands().pSetEx(rawKey(key),
+                                ttlMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES), EMPTY);
+                    } else {
+                        connection.stringCommands().pSetEx(rawKey(key),
+                                ttlMillis(key, time, unit), encode(keyPrefix, r));
+                    }
+                }
+                return null;
+            });
+            for (ID id : missIds) {
+                R r = loaded == null ? null : loaded.get(id);
+                localCache.put(keyPrefix + id, r);
+                if (r != null) {
+                    found.put(id, r);
+                }
+            }
+        }
+        // 4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 布隆过滤器判断数据库中不存在，直接返回
+        if (!cacheBloomFilter.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+        recordAccess(key, type, true);
+        // 0.查询本地缓存，本地缓存的是反序列化后的RedisData，逻辑未过期且不需要提前刷新直接返回
+        Object local = localCache.get(key);
+        if (local == LocalCache.NULL_VALUE) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.L1_HIT);
+            return null;
+        }
+        if (local instanceof RedisData && !shouldRefresh((RedisData) local)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.L1_HIT);
+            return type.cast(((RedisData) local).getData());
+        }
+        // 1.从redis查询商铺缓存，本地需要刷新时redis中可能已被其他节点重建
+        byte[] bytes = getBytes(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (bytes != null && bytes.length == 0) {
+            // 2.1.命中空值，数据库中不存在
+            cacheMetrics.request(keyPrefix, CacheMetrics.NULL_HIT);
+            localCache.put(key, LocalCache.NULL_VALUE);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        if (bytes == null) {
+            // 3.未命中，key被删除或未预热，互斥锁同步加载，不存在时写入空值
+            cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+            return load(key, id, type, dbFallback, time, unit, true);
+        }
+        // 4.命中，一次解析出过期时间与对象
+        long decodeBegin = System.nanoTime();
+        RedisData redisData = codecOf(bytes).decodeLogical(bytes, type);
+        cacheMetrics.decode(keyPrefix, System.nanoTime() - decodeBegin);
+        if (redisData == null || redisData.getData() == null) {
+            // 4.1.数据结构已变化无法解码，或旧版本写入的data为null，同步重建
+            cacheMetrics.request(keyPrefix, CacheMetrics.MISS);
+            long begin = System.nanoTime();
+            R newR = dbFallback.apply(id);
+            long cost = System.nanoTime() - begin;
+            cacheMetrics.rebuild(keyPrefix, cost);
+            this.setWithLogicalExpire(key, newR, time, unit, TimeUnit.NANOSECONDS.toMillis(cost));
+            return newR;
+        }
+        cacheMetrics.request(keyPrefix, CacheMetrics.L2_HIT);
+        R r = type.cast(redisData.getData());
+        localCache.put(key, redisData);
+        // 5.判断是否过期，开启提前刷新时临近过期也按概率重建
+        if (!shouldRefresh(redisData)) {
             // 5.1.未过期，直接返回店铺信息
             return r;
         }
         // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 6.缓存重建，本节点同一个key只提交一个任务，队列已满时直接返回旧数据
+        rebuildExecutor.submit(key, () -> {
+            // 6.1.获取互斥锁，避免多个节点同时重建
+            String lockKey = lockKeyOf(key);
+            String token = rebuildLock.tryLock(lockKey);
+            if (token == null) {
+                cacheMetrics.lockFailure(keyPrefix);
+                return;
+            }
+            try {
+                // 6.2.查询数据库，记录重建耗时
+                long begin = System.nanoTime();
+                R newR = dbFallback.apply(id);
+                long cost = System.nanoTime() - begin;
+                cacheMetrics.rebuild(keyPrefix, cost);
+                // 6.3.重建缓存
+                this.setWithLogicalExpire(key, newR, time, unit, TimeUnit.NANOSECONDS.toMillis(cost));
+            } finally {
+                // 释放锁
+                rebuildLock.unlock(lockKey, token);
+            }
+        });
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * 是否需要重建：已过期，或开启提前刷新时按 XFetch 判断
+     * now - delta * beta * ln(random) >= expireTime，重建越慢、越临近过期，提前刷新的概率越大
+     */
+    private boolean shouldRefresh(RedisData redisData) {
+        long now = System.currentTimeMillis();
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (now >= expireAt) {
+            return true;
+        }
+        Long delta = redisData.getDelta();
+        if (!earlyRefreshEnabled || delta == null || delta <= 0) {
+            return false;
+        }
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return now - delta * earlyRefreshBeta * Math.log(random) >= expireAt;
+    }
+
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        // 布隆过滤器判断数据库中不存在，直接返回
+        if (!cacheBloomFilter.mightContain(keyPrefix, id)) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+        recordAccess(key, type, false);
+        trackAccess(key, id, dbFallback, time, unit);
+        // 0.查询本地缓存
+        Object local = localCache.get(key);
+        if (local != null) {
+            cacheMetrics.request(keyPrefix, CacheMetrics.L1_HIT);
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        Object cached = readRemote(key, type);
+        cacheMetrics.request(keyPrefix, cached == null ? CacheMetrics.MISS
+                : cached == LocalCache.NULL_VALUE ? CacheMetrics.NULL_HIT : CacheMetrics.L2_HIT);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
+        if (cached != null) {
+            // 3.存在直接返回，命中空值返回null
+            return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
         }
 
         // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        return load(key, id, type, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 未命中时加载，同一节点同一个key只有一个线程去竞争互斥锁，其余线程等待它的结果
+     *
+     * @param logical 是否写入逻辑过期缓存
+     */
+    private <R, ID> R load(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean logical) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = inflight.putIfAbsent(key, future);
+        if (loading != null) {
+            return type.cast(awaitLoading(loading));
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            R r = loadWithMutex(key, id, type, dbFallback, time, unit, logical);
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取互斥锁重建缓存，获取失败则等待持锁节点写入缓存后的通知，超时后直接查询数据库
+     */
+    private <R, ID> R loadWithMutex(
+            String key, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean logical) {
+        String lockKey = lockKeyOf(key);
+        long deadline = System.currentTimeMillis() + mutexWait;
+        while (true) {
+            // 4.1.获取互斥锁
+            String token = rebuildLock.tryLock(lockKey);
+            if (token != null) {
+                try {
+                    // 4.2.获取锁成功，再次检查缓存，可能其他节点刚刚完成重建
+                    Object cached = readRemote(key, type, logical);
+                    if (cached != null) {
+                        return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
+                    }
+                    // 4.3.根据id查询数据库并写入redis
+                    R r = rebuild(key, id, dbFallback, time, unit, logical);
+                    // 4.4.通知其他节点上等待的线程
+                    stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+                    return r;
+                } finally {
+                    // 4.5.释放锁
+                    rebuildLock.unlock(lockKey, token);
+                }
+            }
+            cacheMetrics.lockFailure(CacheMetrics.prefixOf(key));
+            // 5.获取锁失败，先登记等待，再检查一次缓存，避免错过登记之前发出的通知
+            CompletableFuture<Void> rebuilt = rebuiltWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+            Object cached = readRemote(key, type, logical);
+            if (cached != null) {
+                rebuiltWaiters.remove(key, rebuilt);
+                return cached == LocalCache.NULL_VALUE ? null : type.cast(cached);
             }
-            // 6.存在，写入redis
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                // 5.1.等待超时，持锁节点可能已宕机，直接查询数据库
+                rebuiltWaiters.remove(key, rebuilt);
+                log.warn("等待缓存重建超时, key={}", key);
+                long begin = System.nanoTime();
+                R r = dbFallback.apply(id);
+                cacheMetrics.rebuild(CacheMetrics.prefixOf(key), System.nanoTime() - begin);
+                return r;
+            }
+            // 5.2.等待重建通知，通知丢失时最多等待 mutexRecheck 毫秒后重新检查
+            try {
+                rebuilt.get(Math.min(remaining, mutexRecheck), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                // 重新检查缓存与锁
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private <R, ID> R rebuild(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean logical) {
+        long begin = System.nanoTime();
+        R r = dbFallback.apply(id);
+        long cost = System.nanoTime() - begin;
+        cacheMetrics.rebuild(CacheMetrics.prefixOf(key), cost);
+        if (r == null) {
+            // 将空值写入redis
+            setNull(key);
+            return null;
+        }
+        if (logical) {
+            this.setWithLogicalExpire(key, r, time, unit, TimeUnit.NANOSECONDS.toMillis(cost));
+        } else {
             this.set(key, r, time, unit);
+        }
+        return r;
+    }
+
+    /**
+     * 记录访问，成为热点key后登记类型，由后台任务建立本地副本
+     */
+    private void recordAccess(String key, Class<?> type, boolean logical) {
+        if (hotKeyDetector.record(key) && !hotKeyTypes.containsKey(key)) {
+            hotKeyTypes.put(key, new HotKeyType(type, logical));
+        }
+    }
+
+    /**
+     * 刷新热点key本地副本：一次MGET读取所有热点key，已冷却的key删除副本
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.refresh-interval:1000}")
+    public void refreshHotKeys() {
+        if (!hotKeyDetector.isEnabled() || hotKeyTypes.isEmpty()) {
+            return;
+        }
+        hotKeyTypes.keySet().removeIf(key -> {
+            if (hotKeyDetector.isHot(key)) {
+                return false;
+            }
+            localCache.removeReplica(key);
+            return true;
+        });
+        List<String> keys = new ArrayList<>(hotKeyTypes.keySet());
+        if (keys.isEmpty()) {
+            return;
+        }
+        // 读取redis之前记录删除版本，期间被删除的key不写回副本
+        long[] versions = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            versions[i] = localCache.version(keys.get(i));
+        }
+        try {
+            List<byte[]> values = multiGetBytes(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                HotKeyType hotKeyType = hotKeyTypes.get(key);
+                byte[] bytes = values == null ? null : values.get(i);
+                Object value = null;
+                if (hotKeyType != null && bytes != null && bytes.length > 0) {
+                    value = hotKeyType.logical
+                            ? codecOf(bytes).decodeLogical(bytes, hotKeyType.type)
+                            : decode(CacheMetrics.prefixOf(key), bytes, hotKeyType.type);
+                }
+                if (value == null) {
+                    // 缓存不存在或为空值时不建立副本，交给正常查询流程
+                    localCache.removeReplica(key);
+                } else {
+                    localCache.putReplica(key, value, replicaTtl, versions[i]);
+                }
+            }
+        } catch (Exception e) {
+            log.error("刷新热点key副本失败", e);
+        }
+    }
+
+    /**
+     * 记录带过期时间的key的访问，首次访问时登记加载方法，用于过期前刷新
+     */
+    private <R, ID> void trackAccess(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        if (!refreshAheadTracker.touch(key)) {
+            refreshAheadTracker.track(key, unit.toMillis(time), () -> dbFallback.apply(id));
+        }
+    }
+
+    /**
+     * 过期前刷新：最近访问的key分批pipeline查询剩余过期时间，临近过期的抢到重建锁后交给重建线程池重新加载，
+     * key仍存在时才写回并释放锁，热点数据不会因同时过期一起穿透到数据库
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.refresh-ahead.interval:10000}")
+    public void refreshAhead() {
+        if (!refreshAheadTracker.isEnabled()) {
+            return;
+        }
+        List<RefreshAheadTracker.Entry> entries = refreshAheadTracker.active();
+        for (int from = 0; from < entries.size(); from += refreshBatchSize) {
+            List<RefreshAheadTracker.Entry> batch =
+                    entries.subList(from, Math.min(from + refreshBatchSize, entries.size()));
+            try {
+                refreshBatch(batch);
+            } catch (Exception e) {
+                log.error("缓存过期前刷新失败", e);
+            }
+        }
+    }
+
+    private void refreshBatch(List<RefreshAheadTracker.Entry> batch) {
+        // 1.一次pipeline查询剩余过期时间，过期时间不大于提前量的key不刷新，避免反复加载
+        List<Object> ttls = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (RefreshAheadTracker.Entry entry : batch) {
+                connection.keyCommands().pTtl(rawKey(entry.key));
+            }
+            return null;
+        });
+        List<RefreshAheadTracker.Entry> expiring = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Long ttl = (Long) ttls.get(i);
+            RefreshAheadTracker.Entry entry = batch.get(i);
+            if (ttl != null && ttl > 0 && ttl <= refreshAhead && entry.ttl > refreshAhead) {
+                expiring.add(entry);
+            }
+        }
+        if (expiring.isEmpty()) {
+            return;
+        }
+        // 2.一次pipeline获取重建锁，多个节点只有一个节点刷新同一个key
+        List<String> tokens = new ArrayList<>(expiring.size());
+        for (int i = 0; i < expiring.size(); i++) {
+            tokens.add(CacheRebuildLock.newToken());
+        }
+        List<Object> locked = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < expiring.size(); i++) {
+                connection.stringCommands().set(rawKey(lockKeyOf(expiring.get(i).key)),
+                        tokens.get(i).getBytes(StandardCharsets.UTF_8),
+                        Expiration.seconds(CacheRebuildLock.LOCK_TTL), RedisStringCommands.SetOption.ifAbsent());
+            }
+            return null;
+        });
+        // 3.在重建线程池中重新加载，不占用定时任务线程；未提交的任务直接释放锁
+        for (int i = 0; i < expiring.size(); i++) {
+            if (!Boolean.TRUE.equals(locked.get(i))) {
+                continue;
+            }
+            RefreshAheadTracker.Entry entry = expiring.get(i);
+            String lockKey = lockKeyOf(entry.key);
+            String token = tokens.get(i);
+            boolean submitted = rebuildExecutor.submit(entry.key, () -> {
+                try {
+                    refreshEntry(entry);
+                } finally {
+                    rebuildLock.unlock(lockKey, token);
+                }
+            });
+            if (!submitted) {
+                rebuildLock.unlock(lockKey, token);
+            }
+        }
+    }
+
+    /**
+     * 重新加载并写回，数据已不存在时写入空值
+     * 只在key仍存在时写入(SET XX)，加载期间被删除的key不会被旧数据写回
+     */
+    private void refreshEntry(RefreshAheadTracker.Entry entry) {
+        long version = localCache.version(entry.key);
+        long begin = System.nanoTime();
+        Object value = entry.loader.get();
+        cacheMetrics.rebuild(CacheMetrics.prefixOf(entry.key), System.nanoTime() - begin);
+        // 过期时间重新抖动，数据已不存在时写入空值
+        long ttl = value == null
+                ? ttlMillis(entry.key, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                : ttlMillis(entry.key, entry.ttl, TimeUnit.MILLISECONDS);
+        byte[] bytes = value == null ? EMPTY : encode(entry.key, value);
+        Boolean written = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(rawKey(entry.key), bytes,
+                        Expiration.milliseconds(ttl), RedisStringCommands.SetOption.ifPresent()));
+        if (BooleanUtil.isTrue(written)) {
+            if (localCache.version(entry.key) == version) {
+                localCache.put(entry.key, value == null ? LocalCache.NULL_VALUE : value);
+            }
+            refreshAheadTracker.refreshed(1);
+        }
+    }
+
+    /**
+     * 过期时间按前缀的抖动比例随机延长，毫秒
+     */
+    private long ttlMillis(String key, long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        double jitter = cacheTtlProperties.jitterOf(CacheMetrics.prefixOf(key));
+        if (jitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * 查询redis缓存，命中后写入本地缓存
+     *
+     * @return 未命中或数据结构已变化无法解码返回null，命中空值返回 LocalCache.NULL_VALUE
+     */
+    private Object readRemote(String key, Class<?> type) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            return null;
+        }
+        Object value = bytes.length == 0 ? LocalCache.NULL_VALUE : decode(CacheMetrics.prefixOf(key), bytes, type);
+        if (value != null) {
+            localCache.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 查询redis缓存，逻辑过期缓存返回其中的数据，本地缓存保存解码后的RedisData
+     */
+    private Object readRemote(String key, Class<?> type, boolean logical) {
+        if (!logical) {
+            return readRemote(key, type);
+        }
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            localCache.put(key, LocalCache.NULL_VALUE);
+            return LocalCache.NULL_VALUE;
+        }
+        RedisData redisData = codecOf(bytes).decodeLogical(bytes, type);
+        if (redisData == null) {
+            return null;
+        }
+        localCache.put(key, redisData);
+        return redisData.getData();
+    }
+
+    private CacheCodec codecOf(byte[] bytes) {
+        return BinaryCacheCodec.isBinary(bytes) ? BINARY_CODEC : JSON_CODEC;
+    }
+
+    private <R> R decode(String prefix, byte[] bytes, Class<R> type) {
+        long begin = System.nanoTime();
+        R r = codecOf(bytes).decode(bytes, type);
+        cacheMetrics.decode(prefix, System.nanoTime() - begin);
+        return r;
+    }
+
+    private byte[] encode(String key, Object value) {
+        long begin = System.nanoTime();
+        byte[] bytes = writeCodec.encode(value);
+        cacheMetrics.encode(CacheMetrics.prefixOf(key), System.nanoTime() - begin);
+        return bytes;
+    }
+
+    private byte[] encodeLogical(String key, RedisData redisData) {
+        long begin = System.nanoTime();
+        byte[] bytes = writeCodec.encodeLogical(redisData);
+        cacheMetrics.encode(CacheMetrics.prefixOf(key), System.nanoTime() - begin);
+        return bytes;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] getBytes(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey(key)));
+    }
+
+    private List<byte[]> multiGetBytes(List<String> keys) {
+        byte[][] rawKeys = keys.stream().map(CacheClient::rawKey).toArray(byte[][]::new);
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.stringCommands().mGet(rawKeys));
+    }
+
+    /**
+     * 写入二进制值，time 为null时不设置过期
+     */
+    private void setBytes(String key, byte[] value, Long time, TimeUnit unit) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (time == null) {
+                connection.stringCommands().set(rawKey(key), value);
+            } else {
+                connection.stringCommands().set(rawKey(key), value,
+                        Expiration.from(time, unit), RedisStringCommands.SetOption.upsert());
+            }
+            return null;
+        });
+    }
+
+    private Object awaitLoading(CompletableFuture<Object> loading) {
+        try {
+            return loading.get();
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * 其他节点重建完成的通知，唤醒本节点等待该key的线程
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        CompletableFuture<Void> rebuilt = rebuiltWaiters.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (rebuilt != null) {
+            rebuilt.complete(null);
         }
-        // 8.返回
-        return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private static class HotKeyType {
+        private final Class<?> type;
+        private final boolean logical;
+
+        HotKeyType(Class<?> type, boolean logical) {
+            this.type = type;
+            this.logical = logical;
+        }
     }
 
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 重建锁 lock:{缓存key}，不同前缀相同id互不影响
+     */
+    private static String lockKeyOf(String key) {
+        return CACHE_LOCK_KEY + key;
     }
 }
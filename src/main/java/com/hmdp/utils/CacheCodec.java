@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存值
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存值，数据结构与当前类型不一致时返回null，按未命中处理
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码逻辑过期缓存值
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 一次解析出逻辑过期时间与数据，data 为 type 类型，数据结构不一致时返回null
+     */
+    RedisData decodeLogical(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存监控端点 /actuator/cache，按前缀汇总命中、重建等指标
+ * 原始指标可通过 /actuator/metrics/cache.requests 等按标签查询
+ */
+@Component
+@Endpoint(id = "cache")
+public class CacheEndpoint {
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private RefreshAheadTracker refreshAheadTracker;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @ReadOperation
+    public Map<String, Object> cache() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("prefixes", cacheMetrics.summary());
+        result.put("l1", localCache.stats());
+        result.put("warmup", cacheWarmer.report());
+        result.put("hotKeys", hotKeyDetector.hotKeys());
+        result.put("rebuildExecutor", cacheRebuildExecutor.stats());
+        result.put("refreshAhead", refreshAheadTracker.stats());
+        result.put("invalidator", cacheInvalidator.stats());
+        return result;
+    }
+}
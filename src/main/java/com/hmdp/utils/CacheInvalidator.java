@@ -0,0 +1,188 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_RETRY_KEY;
+
+/**
+ * 缓存删除：事务提交后删除，延迟双删，失败重试
+ * 1.事务内登记的key在提交后一次pipeline删除，并通知所有节点删除本地缓存；回滚不删除
+ * 2.删除的同时写入待删除队列(zset，score为执行时间)，delay 毫秒后再删除一次，清除并发读写回的旧数据
+ * 3.第二次删除在lua中与出队原子执行，失败的key留在队列中下次重试；redis不可用时暂存本地，恢复后补删
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private static final DefaultRedisScript<List> POP_SCRIPT;
+
+    static {
+        POP_SCRIPT = new DefaultRedisScript<>();
+        POP_SCRIPT.setLocation(new ClassPathResource("cacheInvalidate.lua"));
+        POP_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private LocalCache localCache;
+
+    /**
+     * 第二次删除的延迟，毫秒，应大于一次读数据库并写回缓存的耗时
+     */
+    @Value("${hmdp.cache.invalidate.delay:1000}")
+    private long delay;
+
+    @Value("${hmdp.cache.invalidate.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 第一次删除时redis不可用的key，后台重试
+     */
+    private final Set<String> outbox = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong delayedDeleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    /**
+     * 删除缓存，存在事务时在提交后删除，同一事务内的key合并为一次删除
+     */
+    @SuppressWarnings("unchecked")
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            delete(keys);
+            return;
+        }
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<String> registered = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, registered);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                    if (status == STATUS_COMMITTED) {
+                        delete(registered);
+                    }
+                }
+            });
+            pending = registered;
+        }
+        pending.addAll(keys);
+    }
+
+    /**
+     * 一次pipeline：删除缓存、写入延迟删除队列、通知其他节点删除本地缓存
+     */
+    private void delete(Collection<String> keys) {
+        keys.forEach(localCache::evict);
+        double retryAt = System.currentTimeMillis() + delay;
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.del(keys.toArray(new String[0]));
+                for (String key : keys) {
+                    conn.zAdd(CACHE_INVALIDATE_RETRY_KEY, retryAt, key);
+                    conn.publish(CACHE_INVALIDATE_CHANNEL, key);
+                }
+                return null;
+            });
+            deleted.addAndGet(keys.size());
+        } catch (Exception e) {
+            failed.addAndGet(keys.size());
+            outbox.addAll(keys);
+            log.error("删除缓存失败，稍后重试, keys={}", keys, e);
+        }
+    }
+
+    /**
+     * 补删redis不可用时暂存的key，再执行到期的延迟删除
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.invalidate.interval:500}")
+    public void retry() {
+        if (!outbox.isEmpty()) {
+            List<String> keys = new ArrayList<>(outbox);
+            outbox.removeAll(keys);
+            delete(keys);
+        }
+        try {
+            List<String> keys;
+            do {
+                keys = popDue();
+                if (!keys.isEmpty()) {
+                    publish(keys);
+                    delayedDeleted.addAndGet(keys.size());
+                }
+            } while (keys.size() >= batchSize);
+        } catch (Exception e) {
+            log.error("延迟删除缓存失败，留在队列中下次重试", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> popDue() {
+        List<String> keys = stringRedisTemplate.execute(POP_SCRIPT, Collections.singletonList(CACHE_INVALIDATE_RETRY_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(batchSize));
+        return keys == null ? Collections.emptyList() : keys;
+    }
+
+    /**
+     * 第二次删除后再通知一次，清除其他节点在两次删除之间写入的本地缓存
+     */
+    private void publish(List<String> keys) {
+        keys.forEach(localCache::evict);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            keys.forEach(key -> conn.publish(CACHE_INVALIDATE_CHANNEL, key));
+            return null;
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("delayMs", delay);
+        stats.put("deleted", deleted.get());
+        stats.put("delayedDeleted", delayedDeleted.get());
+        stats.put("failed", failed.get());
+        stats.put("outbox", outbox.size());
+        try {
+            stats.put("queue", stringRedisTemplate.opsForZSet().zCard(CACHE_INVALIDATE_RETRY_KEY));
+        } catch (Exception e) {
+            stats.put("queue", null);
+        }
+        return stats;
+    }
+}
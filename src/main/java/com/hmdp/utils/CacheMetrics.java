@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标，按key前缀打标签，发布到micrometer
+ * cache.requests{prefix,result}：l1_hit / l2_hit / null_hit / miss / bloom_reject
+ * cache.lock.failures{prefix}：获取重建锁失败次数
+ * cache.rebuild{prefix}：查询数据库重建耗时
+ * cache.serialization{prefix,op}：编解码耗时
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String L1_HIT = "l1_hit";
+    public static final String L2_HIT = "l2_hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    public static final String BLOOM_REJECT = "bloom_reject";
+
+    public static final String REQUESTS = "cache.requests";
+    public static final String LOCK_FAILURES = "cache.lock.failures";
+    public static final String REBUILD = "cache.rebuild";
+    public static final String SERIALIZATION = "cache.serialization";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 避免每次记录都到registry中查找
+     */
+    private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+
+    /**
+     * 去掉key末尾的id得到前缀，cache:shop:1 -> cache:shop:
+     */
+    public static String prefixOf(String key) {
+        int end = key.length();
+        while (end > 0 && Character.isDigit(key.charAt(end - 1))) {
+            end--;
+        }
+        return key.substring(0, end);
+    }
+
+    public void request(String prefix, String result) {
+        counter(REQUESTS, prefix, "result", result).increment();
+    }
+
+    public void lockFailure(String prefix) {
+        counter(LOCK_FAILURES, prefix, null, null).increment();
+    }
+
+    public void rebuild(String prefix, long nanos) {
+        timer(REBUILD, prefix, null, null).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void encode(String prefix, long nanos) {
+        timer(SERIALIZATION, prefix, "op", "encode").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void decode(String prefix, long nanos) {
+        timer(SERIALIZATION, prefix, "op", "decode").record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 按前缀汇总：各结果次数、命中率、锁失败次数、重建与编解码耗时
+     */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        for (Counter counter : meterRegistry.find(REQUESTS).counters()) {
+            prefixSummary(summary, counter.getId()).put(counter.getId().getTag("result"), (long) counter.count());
+        }
+        for (Counter counter : meterRegistry.find(LOCK_FAILURES).counters()) {
+            prefixSummary(summary, counter.getId()).put("lock_failures", (long) counter.count());
+        }
+        for (Timer timer : meterRegistry.find(REBUILD).timers()) {
+            prefixSummary(summary, timer.getId()).put("rebuild", timerSummary(timer));
+        }
+        for (Timer timer : meterRegistry.find(SERIALIZATION).timers()) {
+            prefixSummary(summary, timer.getId()).put(timer.getId().getTag("op"), timerSummary(timer));
+        }
+        summary.values().forEach(stats -> {
+            long hits = (long) stats.getOrDefault(L1_HIT, 0L) + (long) stats.getOrDefault(L2_HIT, 0L)
+                    + (long) stats.getOrDefault(NULL_HIT, 0L);
+            long total = hits + (long) stats.getOrDefault(MISS, 0L);
+            stats.put("hitRate", total == 0 ? 0 : (double) hits / total);
+        });
+        return summary;
+    }
+
+    private static Map<String, Object> prefixSummary(Map<String, Map<String, Object>> summary, Meter.Id id) {
+        return summary.computeIfAbsent(id.getTag("prefix"), k -> new TreeMap<>());
+    }
+
+    private static Map<String, Object> timerSummary(Timer timer) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", timer.count());
+        stats.put("meanMs", timer.mean(TimeUnit.MILLISECONDS));
+        stats.put("maxMs", timer.max(TimeUnit.MILLISECONDS));
+        return stats;
+    }
+
+    private Counter counter(String name, String prefix, String tag, String value) {
+        return (Counter) meters.computeIfAbsent(name + '|' + prefix + '|' + value, k -> {
+            Counter.Builder builder = Counter.builder(name).tag("prefix", prefix);
+            if (tag != null) {
+                builder.tag(tag, value);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+
+    private Timer timer(String name, String prefix, String tag, String value) {
+        return (Timer) meters.computeIfAbsent(name + '|' + prefix + '|' + value, k -> {
+            Timer.Builder builder = Timer.builder(name).tag("prefix", prefix);
+            if (tag != null) {
+                builder.tag(tag, value);
+            }
+            // 只有重建耗时发布直方图，编解码调用频繁只记录次数与耗时
+            if (REBUILD.equals(name)) {
+                builder.publishPercentileHistogram();
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+}
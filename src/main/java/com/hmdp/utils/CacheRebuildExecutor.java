@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缓存异步重建线程池，所有缓存共用
+ * 有界队列；同一个key在本节点同时只有一个重建任务；队列满时拒绝，调用方继续返回旧数据
+ * 任务异常记录日志和指标，不会静默丢失
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 排队或执行中的key
+     */
+    private final Set<String> inflight = ConcurrentHashMap.newKeySet();
+
+    private Counter submitted;
+    private Counter deduplicated;
+    private Counter rejected;
+    private Counter failed;
+    private Timer waitTimer;
+    private Timer runTimer;
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("cache.rebuild.queue", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        submitted = Counter.builder("cache.rebuild.tasks").tag("result", "submitted").register(meterRegistry);
+        deduplicated = Counter.builder("cache.rebuild.tasks").tag("result", "deduplicated").register(meterRegistry);
+        rejected = Counter.builder("cache.rebuild.tasks").tag("result", "rejected").register(meterRegistry);
+        failed = Counter.builder("cache.rebuild.tasks").tag("result", "failed").register(meterRegistry);
+        waitTimer = Timer.builder("cache.rebuild.wait").register(meterRegistry);
+        runTimer = Timer.builder("cache.rebuild.run").publishPercentileHistogram().register(meterRegistry);
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @return 是否已提交，key已在重建或队列已满时返回false，调用方返回旧数据即可
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!inflight.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        long submitAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                waitTimer.record(begin - submitAt, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    failed.increment();
+                    log.error("缓存重建失败, key={}", key, e);
+                } finally {
+                    inflight.remove(key);
+                    runTimer.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                }
+            });
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            inflight.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，返回旧数据, key={}", key);
+            return false;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threads", threads);
+        stats.put("active", executor.getActiveCount());
+        stats.put("queue", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("inflight", inflight.size());
+        stats.put("submitted", (long) submitted.count());
+        stats.put("deduplicated", (long) deduplicated.count());
+        stats.put("rejected", (long) rejected.count());
+        stats.put("failed", (long) failed.count());
+        stats.put("runMeanMs", runTimer.mean(TimeUnit.MILLISECONDS));
+        stats.put("runMaxMs", runTimer.max(TimeUnit.MILLISECONDS));
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+}
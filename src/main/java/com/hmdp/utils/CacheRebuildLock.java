@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存重建互斥锁：每次加锁生成唯一标识作为值，释放时通过 unlock.lua 比对标识再删除
+ * 重建超过锁的有效期时不会误删其他节点已经持有的锁
+ */
+@Component
+public class CacheRebuildLock {
+
+    /**
+     * 锁的有效期，秒
+     */
+    public static final long LOCK_TTL = 10;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 生成加锁标识，批量加锁时由调用方写入
+     */
+    public static String newToken() {
+        return UUID.randomUUID().toString(true);
+    }
+
+    /**
+     * 获取锁
+     *
+     * @return 加锁标识，获取失败返回null
+     */
+    public String tryLock(String key) {
+        String token = newToken();
+        Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(key, token, LOCK_TTL, TimeUnit.SECONDS);
+        return Boolean.TRUE.equals(success) ? token : null;
+    }
+
+    /**
+     * 释放锁，锁的值与标识相同才删除
+     */
+    public void unlock(String key, String token) {
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
+    }
+}
@@ -0,0 +1,215 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 启动预热：按主键游标分批读取商铺、商铺类型、未结束的秒杀券，pipeline批量写入redis
+ * 按每秒行数限速，避免冷启动时压垮数据库和redis
+ * 商铺缓存以数据库为准覆盖；秒杀库存只在key不存在时写入，不覆盖进行中的库存
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ShopHashCache shopHashCache;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private ShopTypeMapper shopTypeMapper;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Value("${hmdp.cache.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.warmup.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 每秒最多写入的行数，<=0 不限速
+     */
+    @Value("${hmdp.cache.warmup.rate:20000}")
+    private int rate;
+
+    @Value("${hmdp.cache.shop-layout:json}")
+    private String shopLayout;
+
+    /**
+     * 各阶段进度，阶段 -> 已写入行数
+     */
+    private final Map<String, Long> progress = new ConcurrentHashMap<>();
+
+    private volatile String state = "NOT_STARTED";
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            state = "DISABLED";
+            return;
+        }
+        state = "RUNNING";
+        long begin = System.currentTimeMillis();
+        try {
+            warmShopTypes();
+            warmShops();
+            warmSeckillVouchers();
+            state = "DONE";
+            log.info("缓存预热完成, {}, cost={}ms", progress, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 预热失败不影响启动，未预热的数据由查询时重建
+            state = "FAILED";
+            log.error("缓存预热失败, {}", progress, e);
+        }
+    }
+
+    public Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("state", state);
+        report.putAll(progress);
+        return report;
+    }
+
+    private void warmShopTypes() {
+        List<ShopType> shopTypes = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopTypes));
+        progress.put("shopType", (long) shopTypes.size());
+    }
+
+    private void warmShops() {
+        long total = shopMapper.selectCount(null);
+        long lastId = 0;
+        long count = 0;
+        long begin = System.currentTimeMillis();
+        while (true) {
+            // 1.按id游标读取一批
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            // 2.一次pipeline写入逻辑过期缓存
+            if ("hash".equalsIgnoreCase(shopLayout)) {
+                shopHashCache.setBatch(shops, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            } else {
+                Map<String, Shop> values = new LinkedHashMap<>(shops.size() * 2);
+                for (Shop shop : shops) {
+                    values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+                }
+                cacheClient.setBatchWithLogicalExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            count += shops.size();
+            progress.put("shop", count);
+            log.info("缓存预热 tb_shop {}/{}", count, total);
+            // 3.限速
+            throttle(count, begin);
+            if (shops.size() < batchSize) {
+                break;
+            }
+        }
+    }
+
+    private void warmSeckillVouchers() {
+        LocalDateTime now = LocalDateTime.now();
+        long lastId = 0;
+        long count = 0;
+        long begin = System.currentTimeMillis();
+        while (true) {
+            // 1.按voucher_id游标读取未结束的秒杀券
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .gt("voucher_id", lastId)
+                    .gt("end_time", now)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + batchSize));
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            // 2.库存未初始化时写入所有分段，已有任一布局的库存key时跳过；元数据时间以数据库为准，限购不覆盖
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (SeckillVoucher voucher : vouchers) {
+                    seckillStockManager.initStockIfAbsent(conn, voucher.getVoucherId(), voucher.getStock());
+                    String metaKey = SECKILL_VOUCHER_KEY + voucher.getVoucherId();
+                    conn.hSet(metaKey, "begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+                    conn.hSet(metaKey, "end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+                    conn.hSetNX(metaKey, "limit", "1");
+                }
+                return null;
+            });
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            count += vouchers.size();
+            progress.put("seckillVoucher", count);
+            log.info("缓存预热 tb_seckill_voucher {}", count);
+            throttle(count, begin);
+            if (vouchers.size() < batchSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 按已写入行数计算应耗时间，写得太快则休眠
+     */
+    private void throttle(long count, long begin) {
+        if (rate <= 0) {
+            return;
+        }
+        long sleep = count * 1000 / rate - (System.currentTimeMillis() - begin);
+        if (sleep > 0) {
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
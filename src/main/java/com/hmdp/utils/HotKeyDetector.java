@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 本节点热点key探测：滑动窗口内的访问次数用 Count-Min Sketch 估算
+ * 窗口拆成多个子窗口轮转，每个子窗口一个sketch，估算值为所有子窗口之和
+ * 超过阈值的key进入热点集合，最多保留 top-k 个，按估算值淘汰最小的，低于阈值一半时移出
+ */
+@Component
+public class HotKeyDetector {
+
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 子窗口长度，毫秒；子窗口数量，滑动窗口 = 两者乘积
+     */
+    @Value("${hmdp.cache.hot-key.window:10000}")
+    private long window;
+
+    @Value("${hmdp.cache.hot-key.windows:6}")
+    private int windows;
+
+    /**
+     * 滑动窗口内访问次数达到阈值即为热点
+     */
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+
+    @Value("${hmdp.cache.hot-key.top-k:50}")
+    private int topK;
+
+    @Value("${hmdp.cache.hot-key.sketch-width:4096}")
+    private int width;
+
+    @Value("${hmdp.cache.hot-key.sketch-depth:4}")
+    private int depth;
+
+    private AtomicLongArray[] sketches;
+
+    private volatile int current;
+
+    /**
+     * 热点key -> 最近一次估算的访问次数
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热点集合已满时最小的估算值，未超过它的key不用进入同步块比较
+     */
+    private volatile long minHotEstimate;
+
+    @PostConstruct
+    private void init() {
+        sketches = new AtomicLongArray[windows];
+        for (int i = 0; i < windows; i++) {
+            sketches[i] = new AtomicLongArray(width * depth);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        AtomicLongArray sketch = sketches[current];
+        for (int i = 0; i < depth; i++) {
+            sketch.incrementAndGet(i * width + index(h1, h2, i));
+        }
+        if (hotKeys.containsKey(key)) {
+            return true;
+        }
+        long estimate = estimate(h1, h2);
+        if (estimate < threshold || (hotKeys.size() >= topK && estimate <= minHotEstimate)) {
+            return false;
+        }
+        return promote(key, estimate);
+    }
+
+    /**
+     * 当前热点key，按估算访问次数降序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        hotKeys.replaceAll((key, count) -> estimate(key));
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>(4);
+            item.put("key", entry.getKey());
+            item.put("count", entry.getValue());
+            result.add(item);
+        }
+        return result;
+    }
+
+    public Set<String> hotKeySet() {
+        return hotKeys.keySet();
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 轮转子窗口：清空最旧的子窗口作为当前窗口，并重新估算热点key，冷却的移出
+     */
+    @Scheduled(fixedRateString = "${hmdp.cache.hot-key.window:10000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % windows;
+        AtomicLongArray sketch = sketches[next];
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+        current = next;
+        for (String key : hotKeys.keySet()) {
+            long estimate = estimate(key);
+            if (estimate < threshold / 2) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, estimate);
+            }
+        }
+        minHotEstimate = hotKeys.values().stream().mapToLong(Long::longValue).min().orElse(0);
+    }
+
+    /**
+     * 加入热点集合，已满时替换估算值最小且小于当前key的
+     */
+    private synchronized boolean promote(String key, long estimate) {
+        if (hotKeys.size() >= topK) {
+            // 热点集合中记录的是加入时的估算值，比较前重新估算
+            String minKey = null;
+            long minEstimate = Long.MAX_VALUE;
+            for (String hotKey : hotKeys.keySet()) {
+                long hotEstimate = estimate(hotKey);
+                hotKeys.put(hotKey, hotEstimate);
+                if (hotEstimate < minEstimate) {
+                    minKey = hotKey;
+                    minEstimate = hotEstimate;
+                }
+            }
+            if (minKey == null || minEstimate >= estimate) {
+                minHotEstimate = minEstimate;
+                return false;
+            }
+            hotKeys.remove(minKey);
+            minHotEstimate = Math.min(minEstimate, estimate);
+        }
+        hotKeys.put(key, estimate);
+        return true;
+    }
+
+    private long estimate(String key) {
+        long hash = MurmurHash.hash64(key);
+        return estimate((int) hash, (int) (hash >>> 32));
+    }
+
+    private long estimate(int h1, int h2) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            long sum = 0;
+            int offset = i * width + index(h1, h2, i);
+            for (AtomicLongArray sketch : sketches) {
+                sum += sketch.get(offset);
+            }
+            min = Math.min(min, sum);
+        }
+        return min;
+    }
+
+    private int index(int h1, int h2, int i) {
+        return ((h1 + i * h2) & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 运维接口拦截：请求头 X-Internal-Token 与 hmdp.internal.token 一致才放行
+ * 未配置token时拒绝所有请求，接口只能在配置后使用
+ */
+public class InternalApiInterceptor implements HandlerInterceptor {
+
+    public static final String TOKEN_HEADER = "X-Internal-Token";
+
+    private final String token;
+
+    public InternalApiInterceptor(String token) {
+        this.token = token;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String header = request.getHeader(TOKEN_HEADER);
+        if (StrUtil.isBlank(token) || header == null || !MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), header.getBytes(StandardCharsets.UTF_8))) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存，按容量LRU淘汰、按写入时间过期，存放反序列化后的对象
+ * 数据修改后通过redis发布订阅通知所有节点删除本地缓存
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+
+    /**
+     * redis中缓存的空值，本地同样缓存，避免缓存穿透
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.l1.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.l1.capacity:10000}")
+    private int capacity;
+
+    /**
+     * 本地缓存有效期，毫秒，也是其他节点漏收删除通知时的最长不一致时间
+     */
+    @Value("${hmdp.cache.l1.ttl:30000}")
+    private long ttl;
+
+    private LRUCache<String, Object> cache;
+
+    /**
+     * 热点key副本，不参与LRU淘汰，由后台定时刷新，过期时间短于一级缓存
+     */
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    /**
+     * 删除版本，按key哈希分段，每次删除递增所在分段
+     * 后台刷新副本前记录版本，写入时版本已变化说明期间发生了删除，不写入旧值
+     */
+    private static final int VERSION_STRIPES = 1024;
+
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    @PostConstruct
+    private void init() {
+        cache = CacheUtil.newLRUCache(capacity, ttl);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询本地缓存，不刷新访问时间，过期时间从写入开始计算
+     *
+     * @return 未命中返回null，命中空值返回 NULL_VALUE
+     */
+    public Object get(String key) {
+        Replica replica = replicas.get(key);
+        if (replica != null && replica.expireAt > System.currentTimeMillis()) {
+            return replica.value;
+        }
+        if (!enabled) {
+            return null;
+        }
+        return cache.get(key, false);
+    }
+
+    /**
+     * 当前删除版本，读取redis之前调用
+     */
+    public long version(String key) {
+        return versions.get(stripeOf(key));
+    }
+
+    /**
+     * 写入或刷新热点key副本，读取redis之后发生过删除时不写入
+     *
+     * @param version 读取redis之前的删除版本
+     * @return 是否写入
+     */
+    public boolean putReplica(String key, Object value, long ttl, long version) {
+        int stripe = stripeOf(key);
+        if (versions.get(stripe) != version) {
+            return false;
+        }
+        Replica replica = new Replica(value, System.currentTimeMillis() + ttl);
+        replicas.put(key, replica);
+        // 写入后再检查一次，删除发生在检查与写入之间时撤销
+        if (versions.get(stripe) != version) {
+            replicas.remove(key, replica);
+            return false;
+        }
+        return true;
+    }
+
+    public void removeReplica(String key) {
+        replicas.remove(key);
+    }
+
+    /**
+     * 当前副本，key -> 值
+     */
+    public Map<String, Object> replicas() {
+        Map<String, Object> values = new LinkedHashMap<>(replicas.size() * 2);
+        replicas.forEach((key, replica) -> values.put(key, replica.value));
+        return values;
+    }
+
+    public void put(String key, Object value) {
+        if (enabled) {
+            cache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 只删除本节点本地缓存，其他节点由调用方批量发送删除通知
+     */
+    public void evict(String key) {
+        versions.incrementAndGet(stripeOf(key));
+        cache.remove(key);
+        replicas.remove(key);
+    }
+
+    private static int stripeOf(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+    }
+
+    /**
+     * 删除本地缓存，并通知其他节点删除
+     */
+    public void invalidate(String key) {
+        evict(key);
+        try {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            log.error("发送缓存删除通知失败, key={}", key, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evict(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 命中统计
+     */
+    public Map<String, Object> stats() {
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", cache.size());
+        stats.put("capacity", capacity);
+        stats.put("ttl", ttl);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        stats.put("replicas", replicas.size());
+        return stats;
+    }
+
+    private static class Replica {
+        private final Object value;
+        private final long expireAt;
+
+        Replica(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -12,13 +12,41 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop:hash:";
+    public static final String CACHE_SHOP_IMAGES_KEY = "cache:shop:images:";
+    public static final String CACHE_SHOP_COUNTER_VERSION_KEY = "cache:shop:counter:version:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    /**
+     * 博客作者、点赞列表使用的用户缓存，目前没有修改用户信息的入口删除它，昵称头像修改后最多延迟该时间生效
+     * 新增修改用户信息的接口时需要同时删除 cache:user:{id}
+     */
+    public static final Long CACHE_USER_TTL = 5L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom:add";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String CACHE_INVALIDATE_RETRY_KEY = "cache:invalidate:retry";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String CACHE_LOCK_KEY = "lock:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_COUNT_KEY = "seckill:order:count:";
+    public static final String SECKILL_ORDER_BITMAP_KEY = "seckill:order:bitmap:";
+    public static final String SECKILL_ORDER_BUYERS_KEY = "seckill:order:buyers:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order:status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 60L;
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_SOLD_OUT_VERSION_KEY = "seckill:soldout:version:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String ID_WORKER_KEY = "id:worker:";
 }
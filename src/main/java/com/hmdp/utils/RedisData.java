@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 上次重建耗时，毫秒，用于提前刷新
+     */
+    private Long delta;
 }
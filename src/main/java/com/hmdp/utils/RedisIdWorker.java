@@ -1,16 +1,27 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * redis实现全局id自增，通过时间的秒数进行相应处理    时间戳+计数器
+ * lease 模式下每个节点一次 INCRBY 预留一段序列号，本地 AtomicLong 发放，用到一定比例时异步预取下一段
+ * snowflake 模式交给 SnowflakeIdGenerator 本地生成，不访问redis
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -23,29 +34,177 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    /**
+     * 时间戳小于 2^30 秒（2057年前）时id不会用到第62位，该位留给雪花id的模式标记
+     */
+    static final long MAX_TIMESTAMP = (1L << 30) - 1;
+
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final TimeZone ZONE = TimeZone.getDefault();
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    private final IdWorkerProperties idWorkerProperties;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private final SnowflakeIdGenerator snowflakeIdGenerator;
+
+    /**
+     * 缓存当天的日期字符串，跨天时才重新格式化
+     */
+    private volatile DateKey dateKey = new DateKey(-1, null);
+
+    /**
+     * lease 模式下每个前缀的号段分配器
+     */
+    private final Map<String, SegmentAllocator> allocators = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, IdWorkerProperties idWorkerProperties,
+                         SnowflakeIdGenerator snowflakeIdGenerator) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.idWorkerProperties = idWorkerProperties;
+        this.snowflakeIdGenerator = snowflakeIdGenerator;
     }
 
     public long nextId(String keyPrefix) {
-        // 1 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        String mode = idWorkerProperties.modeOf(keyPrefix);
+        if (IdWorkerProperties.MODE_SNOWFLAKE.equals(mode)) {
+            return snowflakeIdGenerator.nextId();
+        }
+        // 1 生成时间戳，与 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) 相同，但不创建对象
+        long nowMillis = System.currentTimeMillis();
+        long nowSecond = (nowMillis + ZONE.getOffset(nowMillis)) / 1000;
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = currentDate(nowSecond);
         // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count;
+        if (IdWorkerProperties.MODE_LEASE.equals(mode)) {
+            count = allocators.computeIfAbsent(keyPrefix, SegmentAllocator::new).next(date);
+        } else {
+            count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        }
 
         // 3.拼接并返回
+        return compose(timestamp, count);
+
+    }
+
+    static long compose(long timestamp, long count) {
         return timestamp << COUNT_BITS | count;
+    }
+
+    private String currentDate(long nowSecond) {
+        long epochDay = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        DateKey key = dateKey;
+        if (key.epochDay != epochDay) {
+            key = new DateKey(epochDay, LocalDate.ofEpochDay(epochDay).format(DATE_FORMATTER));
+            dateKey = key;
+        }
+        return key.date;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    private static class DateKey {
+        private final long epochDay;
+        private final String date;
+
+        DateKey(long epochDay, String date) {
+            this.epochDay = epochDay;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一段已预留的序列号 [cursor, end]
+     */
+    private static class Segment {
+        private final String date;
+        private final long end;
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        Segment(String date, long start, long end, long prefetchAt) {
+            this.date = date;
+            this.end = end;
+            this.prefetchAt = prefetchAt;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    /**
+     * 号段分配器，当前段用完前异步预取下一段，跨天时丢弃旧段
+     */
+    private class SegmentAllocator {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+
+        SegmentAllocator(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if (count <= segment.end) {
+                        if (count == segment.prefetchAt) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                // 当前段用完或跨天，切换到下一段
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            CompletableFuture<Segment> prefetched = next;
+            next = null;
+            Segment segment = null;
+            if (prefetched != null) {
+                try {
+                    segment = prefetched.join();
+                } catch (Exception e) {
+                    log.error("预取id号段失败, prefix={}", keyPrefix, e);
+                }
+            }
+            current = segment != null && segment.date.equals(date) ? segment : lease(date);
+        }
+
+        private synchronized void prefetch(String date) {
+            if (next == null) {
+                next = CompletableFuture.supplyAsync(() -> lease(date), prefetchExecutor);
+            }
+        }
 
+        /**
+         * INCRBY icr:{prefix}:{date} step 预留一段
+         */
+        private Segment lease(String date) {
+            long step = idWorkerProperties.getLeaseStep();
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, step);
+            long start = end - step + 1;
+            long prefetchAt = end - (long) (step * idWorkerProperties.getPrefetchRatio());
+            return new Segment(date, start, end, Math.max(start, prefetchAt));
+        }
     }
 
     //
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 记录最近访问的带过期时间的缓存key及其加载方法，由 CacheClient 在过期前批量重新加载
+ * 超过 access-window 毫秒未访问的key不再刷新并移出，最多记录 max-keys 个
+ */
+@Component
+public class RefreshAheadTracker {
+
+    @Value("${hmdp.cache.refresh-ahead.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.refresh-ahead.access-window:300000}")
+    private long accessWindow;
+
+    @Value("${hmdp.cache.refresh-ahead.max-keys:10000}")
+    private int maxKeys;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong refreshed = new AtomicLong();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 更新已记录key的访问时间
+     *
+     * @return key未记录时返回false，调用方再调用 track 登记加载方法
+     */
+    public boolean touch(String key) {
+        if (!enabled) {
+            return true;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * 登记key，已满时不再登记，过期后由正常查询流程重建
+     *
+     * @param ttl 写入时的过期时间，毫秒
+     */
+    public void track(String key, long ttl, Supplier<Object> loader) {
+        if (!enabled) {
+            return;
+        }
+        if (entries.size() >= maxKeys) {
+            dropped.incrementAndGet();
+            return;
+        }
+        entries.putIfAbsent(key, new Entry(key, ttl, loader));
+    }
+
+    /**
+     * 访问窗口内访问过的key，同时移出超过访问窗口未访问的key
+     */
+    public List<Entry> active() {
+        long since = System.currentTimeMillis() - accessWindow;
+        List<Entry> active = new ArrayList<>(entries.size());
+        entries.values().removeIf(entry -> {
+            if (entry.lastAccess < since) {
+                return true;
+            }
+            active.add(entry);
+            return false;
+        });
+        return active;
+    }
+
+    public void refreshed(int count) {
+        refreshed.addAndGet(count);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("tracked", entries.size());
+        stats.put("maxKeys", maxKeys);
+        stats.put("dropped", dropped.get());
+        stats.put("refreshed", refreshed.get());
+        return stats;
+    }
+
+    public static class Entry {
+        final String key;
+        final long ttl;
+        final Supplier<Object> loader;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Entry(String key, long ttl, Supplier<Object> loader) {
+            this.key = key;
+            this.ttl = ttl;
+            this.loader = loader;
+        }
+    }
+}
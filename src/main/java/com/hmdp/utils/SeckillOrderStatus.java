@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+/**
+ * 秒杀订单异步处理状态，保存在 seckill:order:status:{orderId} hash 的 status 字段，userId 字段为下单用户
+ * QUEUED 由lua脚本写入，PERSISTED / FAILED 由订单消费者写入
+ */
+public enum SeckillOrderStatus {
+    /**
+     * 已通过资格校验，等待写入数据库
+     */
+    QUEUED,
+    /**
+     * 已写入数据库
+     */
+    PERSISTED,
+    /**
+     * 订单不会创建：超过限购、数据库库存不足，或超过最大投递次数转入死信流
+     * 处理过程中的临时异常不会写入，状态保持排队中等待重试
+     */
+    FAILED
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.CacheObj;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.config.SeckillLimitProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+/**
+ * 秒杀准入限流：本地按优惠券、按节点两级令牌桶，通过后再经过redis lua全局令牌桶
+ * 本地拒绝不访问redis，直接返回繁忙；后面的桶拒绝时退还前面已取得的令牌
+ * 优惠券限流器最多保留 max-vouchers 个，超出后淘汰最久未使用的，避免任意id撑满内存
+ */
+@Slf4j
+@Component
+public class SeckillRateLimiter {
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("rateLimit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillLimitProperties limitProperties;
+
+    private TokenBucket nodeBucket;
+
+    private LRUCache<Long, VoucherLimiter> voucherLimiters;
+
+    @PostConstruct
+    private void init() {
+        nodeBucket = TokenBucket.of(limitProperties.getNodeRate());
+        voucherLimiters = CacheUtil.newLRUCache(limitProperties.getMaxVouchers());
+    }
+
+    /**
+     * 尝试获取准入令牌
+     *
+     * @param voucherId 优惠券id
+     * @return 是否放行
+     */
+    public boolean tryAcquire(Long voucherId) {
+        if (!limitProperties.isEnabled()) {
+            return true;
+        }
+        // 1 本地节点令牌桶，拒绝时不创建优惠券限流器
+        if (!nodeBucket.tryAcquire()) {
+            return false;
+        }
+        VoucherLimiter limiter = voucherLimiters.get(voucherId,
+                () -> new VoucherLimiter(TokenBucket.of(limitProperties.voucherRateOf(voucherId))));
+        // 2 本地优惠券令牌桶
+        if (!limiter.bucket.tryAcquire()) {
+            nodeBucket.refund();
+            limiter.rejectedLocal.increment();
+            return false;
+        }
+        // 3 redis全局令牌桶
+        if (!tryAcquireGlobal(voucherId)) {
+            nodeBucket.refund();
+            limiter.bucket.refund();
+            limiter.rejectedGlobal.increment();
+            return false;
+        }
+        limiter.passed.increment();
+        return true;
+    }
+
+    private boolean tryAcquireGlobal(Long voucherId) {
+        long rate = limitProperties.globalRateOf(voucherId);
+        if (rate <= 0) {
+            return true;
+        }
+        try {
+            Long allowed = stringRedisTemplate.execute(
+                    RATE_LIMIT_SCRIPT,
+                    Collections.singletonList(SECKILL_LIMIT_KEY + voucherId),
+                    String.valueOf(rate), String.valueOf(rate)
+            );
+            return allowed == null || allowed == 1L;
+        } catch (Exception e) {
+            // redis限流异常时放行，由秒杀脚本兜底
+            log.error("全局限流异常, voucherId={}", voucherId, e);
+            return true;
+        }
+    }
+
+    /**
+     * 当前限流计数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        TokenBucket node = nodeBucket;
+        Map<String, Object> nodeStats = new LinkedHashMap<>();
+        nodeStats.put("rate", node.rate);
+        nodeStats.put("tokens", node.available());
+        stats.put("node", nodeStats);
+        Map<Long, Object> vouchers = new LinkedHashMap<>();
+        Iterator<CacheObj<Long, VoucherLimiter>> iterator = voucherLimiters.cacheObjIterator();
+        while (iterator.hasNext()) {
+            CacheObj<Long, VoucherLimiter> entry = iterator.next();
+            Long voucherId = entry.getKey();
+            VoucherLimiter limiter = entry.getValue();
+            Map<String, Object> voucherStats = new LinkedHashMap<>();
+            voucherStats.put("rate", limiter.bucket.rate);
+            voucherStats.put("globalRate", limitProperties.globalRateOf(voucherId));
+            voucherStats.put("tokens", limiter.bucket.available());
+            voucherStats.put("passed", limiter.passed.sum());
+            voucherStats.put("rejectedLocal", limiter.rejectedLocal.sum());
+            voucherStats.put("rejectedGlobal", limiter.rejectedGlobal.sum());
+            vouchers.put(voucherId, voucherStats);
+        }
+        stats.put("vouchers", vouchers);
+        return stats;
+    }
+
+    private static class VoucherLimiter {
+        private final TokenBucket bucket;
+        private final LongAdder passed = new LongAdder();
+        private final LongAdder rejectedLocal = new LongAdder();
+        private final LongAdder rejectedGlobal = new LongAdder();
+
+        VoucherLimiter(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * 本地令牌桶，容量等于每秒速率，速率小于等于0不限流
+     */
+    private static class TokenBucket {
+        private final long rate;
+        private double tokens;
+        private long lastNanos;
+
+        private TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.lastNanos = System.nanoTime();
+        }
+
+        static TokenBucket of(long rate) {
+            return new TokenBucket(rate);
+        }
+
+        synchronized boolean tryAcquire() {
+            if (rate <= 0) {
+                return true;
+            }
+            refill();
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        /**
+         * 退还一个令牌，后面的桶拒绝时调用，不超过容量
+         */
+        synchronized void refund() {
+            if (rate <= 0) {
+                return;
+            }
+            tokens = Math.min(rate, tokens + 1);
+        }
+
+        synchronized double available() {
+            if (rate <= 0) {
+                return -1;
+            }
+            refill();
+            return tokens;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - lastNanos) * rate / 1_000_000_000.0);
+            lastNanos = now;
+        }
+    }
+}
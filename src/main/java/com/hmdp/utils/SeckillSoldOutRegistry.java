@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_VERSION_KEY;
+
+/**
+ * 本地售罄标记，lua脚本返回库存不足后标记，并通过redis发布订阅通知其他节点
+ * 之后的请求直接在jvm内拒绝，不再生成订单id，也不再执行lua脚本
+ * 每次补充库存重置时版本号加一，标记带上执行lua之前的版本号，低于当前版本的旧标记不会生效
+ * 本地没有某个优惠券的版本号时从redis读取，新启动的节点不会用版本0发出被其他节点忽略的标记
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    private static final String SOLD_OUT = "1";
+    private static final String RESET = "0";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 标记的有效期，毫秒，防止丢失重置消息后一直拒绝请求
+     */
+    @Value("${hmdp.seckill.sold-out-ttl:60000}")
+    private long soldOutTtl;
+
+    /**
+     * voucherId -> 标记时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * voucherId -> 已知的最新重置版本号
+     */
+    private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markTime = soldOut.get(voucherId);
+        if (markTime == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markTime > soldOutTtl) {
+            // 过期，重新交给redis判断
+            soldOut.remove(voucherId, markTime);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前已知的重置版本号，执行lua脚本之前读取，标记售罄时传入
+     */
+    public long version(Long voucherId) {
+        Long version = versions.get(voucherId);
+        if (version != null) {
+            return version;
+        }
+        try {
+            String value = stringRedisTemplate.opsForValue().get(SECKILL_SOLD_OUT_VERSION_KEY + voucherId);
+            return versions.merge(voucherId, value == null ? 0L : Long.parseLong(value), Math::max);
+        } catch (Exception e) {
+            // 读取失败不缓存，下次重新读取
+            log.error("读取售罄版本号失败, voucherId={}", voucherId, e);
+            return 0L;
+        }
+    }
+
+    /**
+     * 标记售罄，并广播给其他节点
+     *
+     * @param version 执行lua脚本之前的版本号，期间已重置则忽略
+     */
+    public void markSoldOut(Long voucherId, long version) {
+        if (mark(voucherId, version)) {
+            publish(SOLD_OUT, voucherId, version);
+        }
+    }
+
+    /**
+     * 补充库存后清除标记，并广播新的版本号给其他节点
+     * 需要在补充库存的事务提交之后调用
+     */
+    public void reset(Long voucherId) {
+        long version;
+        try {
+            version = stringRedisTemplate.opsForValue().increment(SECKILL_SOLD_OUT_VERSION_KEY + voucherId);
+        } catch (Exception e) {
+            // 取不到全局版本号时按本地版本加一，其他节点同样会清除标记
+            log.error("获取售罄版本号失败, voucherId={}", voucherId, e);
+            version = version(voucherId) + 1;
+        }
+        clear(voucherId, version);
+        publish(RESET, voucherId, version);
+    }
+
+    private synchronized boolean mark(Long voucherId, long version) {
+        if (version < version(voucherId)) {
+            return false;
+        }
+        return soldOut.putIfAbsent(voucherId, System.currentTimeMillis()) == null;
+    }
+
+    private synchronized void clear(Long voucherId, long version) {
+        versions.merge(voucherId, version, Math::max);
+        soldOut.remove(voucherId);
+    }
+
+    private void publish(String type, Long voucherId, long version) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, type + ":" + voucherId + ":" + version);
+        } catch (Exception e) {
+            log.error("广播售罄标记失败, voucherId={}", voucherId, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // 消息格式 type:voucherId:version
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+        if (parts.length < 3) {
+            return;
+        }
+        Long voucherId = Long.valueOf(parts[1]);
+        long version = Long.parseLong(parts[2]);
+        if (SOLD_OUT.equals(parts[0])) {
+            mark(voucherId, version);
+        } else {
+            clear(voucherId, version);
+        }
+    }
+}
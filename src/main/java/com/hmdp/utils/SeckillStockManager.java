@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存分段管理，一个优惠券的库存拆到 M 个子key：seckill:stock:{voucherId}:{segment}
+ * 分段数为1时保持原来的单key seckill:stock:{voucherId}
+ * 注意：分段数需要和lua脚本保持一致，秒杀进行中不要修改
+ */
+@Component
+public class SeckillStockManager {
+
+    private static final DefaultRedisScript<Long> DECREASE_SCRIPT;
+    private static final DefaultRedisScript<Long> INIT_SCRIPT;
+
+    static {
+        DECREASE_SCRIPT = new DefaultRedisScript<>();
+        DECREASE_SCRIPT.setLocation(new ClassPathResource("stockDecrease.lua"));
+        DECREASE_SCRIPT.setResultType(Long.class);
+        INIT_SCRIPT = new DefaultRedisScript<>();
+        INIT_SCRIPT.setLocation(new ClassPathResource("stockInit.lua"));
+        INIT_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 库存分段数
+     */
+    @Value("${hmdp.seckill.stock-segments:1}")
+    private int segments;
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * 该优惠券所有库存key
+     */
+    public List<String> stockKeys(Long voucherId) {
+        List<String> keys = new ArrayList<>(segments);
+        if (segments <= 1) {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+            return keys;
+        }
+        for (int i = 0; i < segments; i++) {
+            keys.add(SECKILL_STOCK_KEY + voucherId + ":" + i);
+        }
+        return keys;
+    }
+
+    /**
+     * 初始化库存，平均拆分到每个分段，余数放在前面的分段
+     */
+    public void initStock(Long voucherId, int stock) {
+        stringRedisTemplate.opsForValue().multiSet(splitStock(voucherId, stock));
+    }
+
+    /**
+     * 在pipeline中执行：库存未初始化时原子写入所有分段
+     * 单key或任一分段布局的第0段已存在时跳过，修改分段数后不会按数据库库存再写一份
+     */
+    public void initStockIfAbsent(StringRedisConnection connection, Long voucherId, int stock) {
+        Map<String, String> split = splitStock(voucherId, stock);
+        List<String> keysAndArgs = new ArrayList<>(split.size() * 2 + 2);
+        keysAndArgs.add(SECKILL_STOCK_KEY + voucherId);
+        keysAndArgs.add(SECKILL_STOCK_KEY + voucherId + ":0");
+        keysAndArgs.addAll(split.keySet());
+        keysAndArgs.addAll(split.values());
+        connection.eval(INIT_SCRIPT.getScriptAsString(), ReturnType.INTEGER, split.size() + 2,
+                keysAndArgs.toArray(new String[0]));
+    }
+
+    /**
+     * 库存拆分到每个分段key，余数放在前面的分段
+     */
+    public Map<String, String> splitStock(Long voucherId, int stock) {
+        List<String> keys = stockKeys(voucherId);
+        int[] parts = split(stock, keys.size());
+        Map<String, String> map = new HashMap<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), String.valueOf(parts[i]));
+        }
+        return map;
+    }
+
+    /**
+     * 补充库存，同样平均拆分到每个分段
+     */
+    public void addStock(Long voucherId, int count) {
+        List<String> keys = stockKeys(voucherId);
+        int[] parts = split(count, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (parts[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(keys.get(i), parts[i]);
+            }
+        }
+    }
+
+    /**
+     * 调整库存，增加时平均拆分，减少时在lua中依次从有库存的分段扣除，每个分段最多扣到0
+     *
+     * @throws IllegalArgumentException 减少数量超过剩余库存合计
+     */
+    public void adjustStock(Long voucherId, long delta) {
+        if (delta >= 0) {
+            addStock(voucherId, (int) delta);
+            return;
+        }
+        Long result = stringRedisTemplate.execute(DECREASE_SCRIPT, stockKeys(voucherId), String.valueOf(-delta));
+        if (result == null || result < 0) {
+            throw new IllegalArgumentException("减少数量超过剩余库存, voucherId=" + voucherId + ", delta=" + delta);
+        }
+    }
+
+    /**
+     * 每个分段的剩余库存，key不存在时为0
+     */
+    public List<Long> segmentStocks(Long voucherId) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys(voucherId));
+        List<Long> stocks = new ArrayList<>(segments);
+        if (values == null) {
+            return stocks;
+        }
+        for (String value : values) {
+            stocks.add(value == null ? 0L : Long.parseLong(value));
+        }
+        return stocks;
+    }
+
+    /**
+     * 汇总库存
+     */
+    public long totalStock(Long voucherId) {
+        long total = 0;
+        for (Long stock : segmentStocks(voucherId)) {
+            total += stock;
+        }
+        return total;
+    }
+
+    static int[] split(int total, int parts) {
+        int[] result = new int[parts];
+        for (int i = 0; i < parts; i++) {
+            result[i] = total / parts + (i < total % parts ? 1 : 0);
+        }
+        return result;
+    }
+}
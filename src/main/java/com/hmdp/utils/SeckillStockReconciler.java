@@ -0,0 +1,242 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.StockReconcileResult;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀库存对账：redis库存 + redis已售 应等于 数据库库存 + 数据库订单数
+ * 按 voucher_id 游标分页读取进行中的秒杀券，库存与订单数由同一条sql的子查询读出，保证同一快照；每页一次redis pipeline
+ * 修复时redis库存只在差异为正（redis多于数据库）或秒杀未在进行中时自动调整，
+ * 进行中的秒杀需要补redis库存时只报告，由内部接口手动 refresh 对账时修复，避免误判补库存造成超卖
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private SeckillStockManager seckillStockManager;
+
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 每页读取的秒杀券数量
+     */
+    @Value("${hmdp.seckill.reconcile.page-size:200}")
+    private int pageSize;
+
+    /**
+     * 结束多久以内的秒杀券仍参与对账，分钟
+     */
+    @Value("${hmdp.seckill.reconcile.ended-within:60}")
+    private long endedWithin;
+
+    /**
+     * 是否自动修复redis库存，连续两次差异相同才修复，避免对账期间补库存造成误判
+     */
+    @Value("${hmdp.seckill.reconcile.repair:false}")
+    private boolean repair;
+
+    /**
+     * 上次对账的差异，voucherId -> delta
+     */
+    private final Map<Long, Long> lastDeltas = new ConcurrentHashMap<>();
+
+    private volatile List<StockReconcileResult> lastReport = Collections.emptyList();
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile.interval:60000}")
+    public void scheduledReconcile() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("秒杀库存对账异常", e);
+        }
+    }
+
+    /**
+     * 定时对账，进行中的秒杀不自动补redis库存
+     */
+    public List<StockReconcileResult> reconcile() {
+        return reconcile(false);
+    }
+
+    /**
+     * 执行一次对账，返回有差异的秒杀券
+     *
+     * @param manual 是否手动触发，手动触发时允许为进行中的秒杀补redis库存
+     */
+    public List<StockReconcileResult> reconcile(boolean manual) {
+        List<StockReconcileResult> report = new ArrayList<>();
+        Map<Long, Long> deltas = new HashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime since = now.minusMinutes(endedWithin);
+        long lastId = 0;
+        int checked = 0;
+        while (true) {
+            // 1 游标分页 where voucher_id > lastId and end_time >= since order by voucher_id limit n
+            //   订单数用相关子查询与库存在同一条语句中读出，扣库存与写订单在同一事务，两者不会读到不同时刻
+            List<Map<String, Object>> vouchers = seckillVoucherMapper.selectMaps(new QueryWrapper<SeckillVoucher>()
+                    .select("voucher_id", "stock", "begin_time", "end_time",
+                            "(SELECT COUNT(*) FROM tb_voucher_order o WHERE o.voucher_id = tb_seckill_voucher.voucher_id) AS orders")
+                    .gt("voucher_id", lastId)
+                    .ge("end_time", since)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + pageSize));
+            if (vouchers.isEmpty()) {
+                break;
+            }
+            lastId = toLong(vouchers.get(vouchers.size() - 1).get("voucher_id"));
+            checked += vouchers.size();
+            // 2 对账当前页
+            List<StockReconcileResult> results = reconcilePage(vouchers);
+            for (int i = 0; i < results.size(); i++) {
+                StockReconcileResult result = results.get(i);
+                if (result.getDelta() == 0) {
+                    continue;
+                }
+                deltas.put(result.getVoucherId(), result.getDelta());
+                boolean stable = result.getDelta().equals(lastDeltas.get(result.getVoucherId()));
+                // 进行中的秒杀需要补redis库存时只报告，等待手动对账
+                boolean autoRepair = manual || !needManualRepair(result.getDelta(), vouchers.get(i), now);
+                result.setManualRepair(!autoRepair);
+                result.setRepaired(repair && stable && autoRepair && repairStock(result));
+                report.add(result);
+            }
+            if (vouchers.size() < pageSize) {
+                break;
+            }
+        }
+        // 3 记录差异，供下次判断是否稳定
+        lastDeltas.clear();
+        lastDeltas.putAll(deltas);
+        lastReport = report;
+        if (report.isEmpty()) {
+            log.debug("秒杀库存对账完成, checked={}", checked);
+        } else {
+            log.warn("秒杀库存对账发现差异, checked={}, diff={}", checked, report);
+        }
+        return report;
+    }
+
+    public List<StockReconcileResult> getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * 差异为负（redis少于数据库）时修复会增加redis库存，秒杀进行中不自动执行
+     */
+    static boolean needManualRepair(long delta, Map<String, Object> voucher, LocalDateTime now) {
+        if (delta >= 0) {
+            return false;
+        }
+        LocalDateTime begin = toDateTime(voucher.get("begin_time"));
+        LocalDateTime end = toDateTime(voucher.get("end_time"));
+        return (begin == null || !now.isBefore(begin)) && (end == null || now.isBefore(end));
+    }
+
+    private static LocalDateTime toDateTime(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    private List<StockReconcileResult> reconcilePage(List<Map<String, Object>> vouchers) {
+        List<Long> voucherIds = vouchers.stream().map(v -> toLong(v.get("voucher_id"))).collect(Collectors.toList());
+        // 1 redis pipeline：每个券 GET 各分段库存、SCARD 购买用户、GET bitmap购买用户数、HVALS 限购计数
+        int segments = seckillStockManager.getSegments();
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long voucherId : voucherIds) {
+                for (String key : seckillStockManager.stockKeys(voucherId)) {
+                    conn.get(key);
+                }
+                conn.sCard(RedisConstants.SECKILL_ORDER_KEY + voucherId);
+                conn.get(RedisConstants.SECKILL_ORDER_BUYERS_KEY + voucherId);
+                conn.hVals(RedisConstants.SECKILL_ORDER_COUNT_KEY + voucherId);
+            }
+            return null;
+        });
+        // 2 比较
+        List<StockReconcileResult> results = new ArrayList<>(vouchers.size());
+        int index = 0;
+        for (Map<String, Object> voucher : vouchers) {
+            long redisStock = 0;
+            for (int i = 0; i < Math.max(segments, 1); i++) {
+                Object stock = values.get(index++);
+                redisStock += stock == null ? 0 : Long.parseLong(stock.toString());
+            }
+            long redisSold = ((Number) values.get(index++)).longValue();
+            Object bitmapBuyers = values.get(index++);
+            redisSold += bitmapBuyers == null ? 0 : Long.parseLong(bitmapBuyers.toString());
+            Object limitCounts = values.get(index++);
+            if (limitCounts instanceof Collection) {
+                for (Object count : (Collection<?>) limitCounts) {
+                    redisSold += Long.parseLong(count.toString());
+                }
+            }
+            StockReconcileResult result = new StockReconcileResult();
+            result.setVoucherId(toLong(voucher.get("voucher_id")));
+            result.setRedisStock(redisStock);
+            result.setRedisSold(redisSold);
+            result.setDbStock(toLong(voucher.get("stock")));
+            result.setDbOrders(toLong(voucher.get("orders")));
+            result.setInFlight(redisSold - result.getDbOrders());
+            result.setDelta(redisStock + redisSold - result.getDbStock() - result.getDbOrders());
+            result.setRepaired(false);
+            result.setManualRepair(false);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 以数据库为准修正redis库存：redis库存调整 -delta
+     */
+    private boolean repairStock(StockReconcileResult result) {
+        try {
+            seckillStockManager.adjustStock(result.getVoucherId(), -result.getDelta());
+            if (result.getRedisStock() - result.getDelta() > 0) {
+                // 修正后有库存，清除售罄标记
+                seckillSoldOutRegistry.reset(result.getVoucherId());
+            }
+            log.warn("已修复秒杀库存, voucherId={}, adjust={}", result.getVoucherId(), -result.getDelta());
+            return true;
+        } catch (Exception e) {
+            log.error("修复秒杀库存失败, voucherId={}", result.getVoucherId(), e);
+            return false;
+        }
+    }
+}
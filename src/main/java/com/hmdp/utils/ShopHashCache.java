@@ -0,0 +1,365 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.CacheTtlProperties;
+import com.hmdp.entity.Shop;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_COUNTER_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_IMAGES_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 商铺hash缓存，hmdp.cache.shop-layout=hash 时使用
+ * cache:shop:hash:{id} 每个字段一个hash field，值都很短，redis使用listpack紧凑编码；逻辑过期时间单独一个字段
+ * 较长的images单独存放在 cache:shop:images:{id}，列表页等只需要部分字段时 HMGET 不读取也不解析它
+ * 销量、评论数等计数字段用 HINCRBY 原子更新，不需要重写整个缓存
+ * 每次写入由lua脚本原子完成；自增同时递增计数版本，重建时版本在查询数据库后变化则放弃写入，避免覆盖期间的自增
+ * 数据库中不存在的商铺写入只有 _expireAt 的空值标记，按 CACHE_NULL_TTL 过期，避免缓存穿透
+ */
+@Component
+public class ShopHashCache {
+
+    public static final String ID = "id";
+    public static final String NAME = "name";
+    public static final String TYPE_ID = "typeId";
+    public static final String AREA = "area";
+    public static final String ADDRESS = "address";
+    public static final String X = "x";
+    public static final String Y = "y";
+    public static final String AVG_PRICE = "avgPrice";
+    public static final String SOLD = "sold";
+    public static final String COMMENTS = "comments";
+    public static final String SCORE = "score";
+    public static final String OPEN_HOURS = "openHours";
+    public static final String CREATE_TIME = "createTime";
+    public static final String UPDATE_TIME = "updateTime";
+
+    /**
+     * 逻辑过期时间，毫秒时间戳，不存在说明缓存不存在或不完整
+     */
+    public static final String EXPIRE_AT = "_expireAt";
+
+    /**
+     * 商铺全部字段，不含单独存放的images
+     */
+    public static final String[] FIELDS = {ID, NAME, TYPE_ID, AREA, ADDRESS, X, Y, AVG_PRICE, SOLD, COMMENTS,
+            SCORE, OPEN_HOURS, CREATE_TIME, UPDATE_TIME};
+
+    /**
+     * 可以用 HINCRBY 更新的计数字段
+     */
+    public static final List<String> COUNTERS = Arrays.asList(SOLD, COMMENTS);
+
+    /**
+     * 计数版本有效期，毫秒，需要大于重建锁有效期
+     */
+    private static final long VERSION_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * 不检查计数版本
+     */
+    private static final String ANY_VERSION = "*";
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    private static final DefaultRedisScript<Long> SET_SCRIPT;
+
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("shopHashIncr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+        SET_SCRIPT = new DefaultRedisScript<>();
+        SET_SCRIPT.setLocation(new ClassPathResource("shopHashSet.lua"));
+        SET_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheBloomFilter cacheBloomFilter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheRebuildExecutor rebuildExecutor;
+
+    @Resource
+    private CacheRebuildLock rebuildLock;
+
+    @Resource
+    private CacheTtlProperties cacheTtlProperties;
+
+    /**
+     * 查询完整商铺，一次pipeline读取hash与images
+     * 不存在时同步加载，逻辑过期后异步重建并返回旧数据
+     */
+    public Shop queryById(Long id, Function<Long, Shop> dbFallback, Long time, TimeUnit unit) {
+        // 布隆过滤器判断数据库中不存在，直接返回
+        if (!cacheBloomFilter.mightContain(CACHE_SHOP_KEY, id)) {
+            cacheMetrics.request(CACHE_SHOP_HASH_KEY, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+        String key = CACHE_SHOP_HASH_KEY + id;
+        // 1.一次pipeline查询所有字段、过期时间和图片
+        List<String> fields = new ArrayList<>(Arrays.asList(FIELDS));
+        fields.add(EXPIRE_AT);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMGet(key, fields.toArray(new String[0]));
+            conn.get(CACHE_SHOP_IMAGES_KEY + id);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        List<String> values = (List<String>) results.get(0);
+        String expireAt = values.get(values.size() - 1);
+        // 2.不存在或不完整，同步加载
+        if (expireAt == null) {
+            cacheMetrics.request(CACHE_SHOP_HASH_KEY, CacheMetrics.MISS);
+            return load(id, dbFallback, time, unit);
+        }
+        // 2.1.命中空值标记，数据库中不存在
+        if (values.get(0) == null) {
+            cacheMetrics.request(CACHE_SHOP_HASH_KEY, CacheMetrics.NULL_HIT);
+            return null;
+        }
+        cacheMetrics.request(CACHE_SHOP_HASH_KEY, CacheMetrics.L2_HIT);
+        Shop shop = toShop(fields, values);
+        shop.setImages((String) results.get(1));
+        // 3.逻辑过期，异步重建，返回旧数据
+        if (System.currentTimeMillis() >= Long.parseLong(expireAt)) {
+            rebuildExecutor.submit(key, () -> {
+                String lockKey = CACHE_LOCK_KEY + key;
+                String token = rebuildLock.tryLock(lockKey);
+                if (token == null) {
+                    cacheMetrics.lockFailure(CACHE_SHOP_HASH_KEY);
+                    return;
+                }
+                try {
+                    load(id, dbFallback, time, unit);
+                } finally {
+                    rebuildLock.unlock(lockKey, token);
+                }
+            });
+        }
+        return shop;
+    }
+
+    /**
+     * 写入商铺，值为null的字段不写入，逻辑过期时间按抖动比例随机延长
+     */
+    public void set(Shop shop, Long time, TimeUnit unit) {
+        setBatch(Collections.singletonList(shop), time, unit);
+    }
+
+    /**
+     * 批量写入商铺，一次pipeline，每个商铺由脚本原子写入
+     */
+    public void setBatch(Collection<Shop> shops, Long time, TimeUnit unit) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                Map<String, String> hash = toHash(shop);
+                hash.put(EXPIRE_AT, String.valueOf(now + ttlMillis(time, unit)));
+                write(conn, shop.getId(), ANY_VERSION, 0, shop.getImages(), hash);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 计数字段原子自增，缓存不存在时不写入
+     *
+     * @return 自增后的值，缓存不存在返回null
+     */
+    public Long increment(Long id, String field, long delta) {
+        if (!COUNTERS.contains(field)) {
+            throw new IllegalArgumentException("不支持自增的字段: " + field);
+        }
+        return stringRedisTemplate.execute(INCR_SCRIPT,
+                Arrays.asList(CACHE_SHOP_HASH_KEY + id, CACHE_SHOP_COUNTER_VERSION_KEY + id),
+                field, String.valueOf(delta), String.valueOf(VERSION_TTL));
+    }
+
+    /**
+     * 删除商铺缓存需要删除的key
+     */
+    public static String[] keysOf(Long id) {
+        return new String[]{CACHE_SHOP_HASH_KEY + id, CACHE_SHOP_IMAGES_KEY + id};
+    }
+
+    /**
+     * 查询数据库重建缓存，查询前记录计数版本，写入时版本变化说明期间有自增，放弃写入，下次读取重新加载
+     */
+    private Shop load(Long id, Function<Long, Shop> dbFallback, Long time, TimeUnit unit) {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_COUNTER_VERSION_KEY + id);
+        String expected = version == null ? "" : version;
+        long begin = System.nanoTime();
+        Shop shop = dbFallback.apply(id);
+        cacheMetrics.rebuild(CACHE_SHOP_HASH_KEY, System.nanoTime() - begin);
+        Map<String, String> hash;
+        long ttl;
+        if (shop != null) {
+            hash = toHash(shop);
+            hash.put(EXPIRE_AT, String.valueOf(System.currentTimeMillis() + ttlMillis(time, unit)));
+            ttl = 0;
+        } else {
+            // 空值标记：只有 _expireAt 字段，按 CACHE_NULL_TTL 真实过期
+            ttl = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+            hash = Collections.singletonMap(EXPIRE_AT, String.valueOf(System.currentTimeMillis() + ttl));
+        }
+        long pexpire = ttl;
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            write((StringRedisConnection) connection, id, expected, pexpire, shop == null ? null : shop.getImages(), hash);
+            return null;
+        });
+        return shop;
+    }
+
+    private static void write(StringRedisConnection conn, Long id, String expectedVersion, long ttl,
+                              String images, Map<String, String> hash) {
+        List<String> keysAndArgs = new ArrayList<>(hash.size() * 2 + 6);
+        keysAndArgs.add(CACHE_SHOP_HASH_KEY + id);
+        keysAndArgs.add(CACHE_SHOP_IMAGES_KEY + id);
+        keysAndArgs.add(CACHE_SHOP_COUNTER_VERSION_KEY + id);
+        keysAndArgs.add(expectedVersion);
+        keysAndArgs.add(String.valueOf(ttl));
+        keysAndArgs.add(images == null ? "" : images);
+        hash.forEach((field, value) -> {
+            keysAndArgs.add(field);
+            keysAndArgs.add(value);
+        });
+        conn.eval(SET_SCRIPT.getScriptAsString(), ReturnType.INTEGER, 3, keysAndArgs.toArray(new String[0]));
+    }
+
+    private long ttlMillis(Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        double jitter = cacheTtlProperties.jitterOf(CACHE_SHOP_KEY);
+        if (jitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private static Map<String, String> toHash(Shop shop) {
+        Map<String, String> hash = new HashMap<>(32);
+        putIfNotNull(hash, ID, shop.getId());
+        putIfNotNull(hash, NAME, shop.getName());
+        putIfNotNull(hash, TYPE_ID, shop.getTypeId());
+        putIfNotNull(hash, AREA, shop.getArea());
+        putIfNotNull(hash, ADDRESS, shop.getAddress());
+        putIfNotNull(hash, X, shop.getX());
+        putIfNotNull(hash, Y, shop.getY());
+        putIfNotNull(hash, AVG_PRICE, shop.getAvgPrice());
+        putIfNotNull(hash, SOLD, shop.getSold());
+        putIfNotNull(hash, COMMENTS, shop.getComments());
+        putIfNotNull(hash, SCORE, shop.getScore());
+        putIfNotNull(hash, OPEN_HOURS, shop.getOpenHours());
+        if (shop.getCreateTime() != null) {
+            hash.put(CREATE_TIME, String.valueOf(toEpochMilli(shop.getCreateTime())));
+        }
+        if (shop.getUpdateTime() != null) {
+            hash.put(UPDATE_TIME, String.valueOf(toEpochMilli(shop.getUpdateTime())));
+        }
+        return hash;
+    }
+
+    private static void putIfNotNull(Map<String, String> hash, String field, Object value) {
+        if (value != null) {
+            hash.put(field, value.toString());
+        }
+    }
+
+    private static Shop toShop(List<String> fields, List<String> values) {
+        Shop shop = new Shop();
+        for (int i = 0; i < fields.size(); i++) {
+            String value = values.get(i);
+            if (StrUtil.isEmpty(value)) {
+                continue;
+            }
+            switch (fields.get(i)) {
+                case ID:
+                    shop.setId(Long.valueOf(value));
+                    break;
+                case NAME:
+                    shop.setName(value);
+                    break;
+                case TYPE_ID:
+                    shop.setTypeId(Long.valueOf(value));
+                    break;
+                case AREA:
+                    shop.setArea(value);
+                    break;
+                case ADDRESS:
+                    shop.setAddress(value);
+                    break;
+                case X:
+                    shop.setX(Double.valueOf(value));
+                    break;
+                case Y:
+                    shop.setY(Double.valueOf(value));
+                    break;
+                case AVG_PRICE:
+                    shop.setAvgPrice(Long.valueOf(value));
+                    break;
+                case SOLD:
+                    shop.setSold(Integer.valueOf(value));
+                    break;
+                case COMMENTS:
+                    shop.setComments(Integer.valueOf(value));
+                    break;
+                case SCORE:
+                    shop.setScore(Integer.valueOf(value));
+                    break;
+                case OPEN_HOURS:
+                    shop.setOpenHours(value);
+                    break;
+                case CREATE_TIME:
+                    shop.setCreateTime(ofEpochMilli(Long.parseLong(value)));
+                    break;
+                case UPDATE_TIME:
+                    shop.setUpdateTime(ofEpochMilli(Long.parseLong(value)));
+                    break;
+                default:
+            }
+        }
+        return shop;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime ofEpochMilli(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 本地雪花id：1位模式标记 + 40位毫秒时间戳 + 10位workerId + 12位序列号，生成时不访问网络
+ * 模式标记固定为第62位，RedisIdWorker 的 秒级时间戳<<32 在2057年前不会用到该位，切换模式后id不会与已发放的重复
+ * workerId 从redis租用 id:worker:{n}，定时心跳续期，租约丢失后重新租用
+ * 本地记录租约到期时间，每次续期成功后延后；超过到期时间仍未续期成功时拒绝发号，避免与新租户重复
+ * 时钟回拨时沿用上次的时间戳继续发号，序列号用完借用下一毫秒，保证不重复
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator {
+
+    /**
+     * 开始时间戳，毫秒，与 RedisIdWorker 相同
+     */
+    private static final long BEGIN_MILLIS = 1680694702000L;
+
+    /**
+     * 雪花id的模式标记位
+     */
+    static final long MODE_BIT = 1L << 62;
+
+    private static final int TIMESTAMP_BITS = 40;
+    private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("leaseRenew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    /**
+     * 租约持有者标识
+     */
+    private final String token = UUID.randomUUID().toString(true);
+
+    private volatile long workerId = -1;
+
+    /**
+     * 租约到期时间，毫秒，按发起租用或续期的时间计算，不晚于redis中key的实际过期时间
+     */
+    private volatile long leaseDeadline;
+
+    /**
+     * 上次发号状态：时间戳 << 12 | 序列号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * 时钟回拨次数
+     */
+    private final LongAdder clockBackwards = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        // 有前缀使用雪花id时才租用workerId
+        if (idWorkerProperties.usesMode(IdWorkerProperties.MODE_SNOWFLAKE)) {
+            acquireWorkerId();
+        }
+    }
+
+    public long nextId() {
+        long worker = workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("未获取到雪花id的workerId");
+        }
+        if (System.currentTimeMillis() >= leaseDeadline) {
+            throw new IllegalStateException("雪花id workerId租约已过期, workerId=" + worker);
+        }
+        while (true) {
+            long prev = state.get();
+            long prevTimestamp = prev >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - BEGIN_MILLIS;
+            long timestamp;
+            long sequence;
+            if (now > prevTimestamp) {
+                // 1 新的毫秒，序列号从0开始
+                timestamp = now;
+                sequence = 0;
+            } else {
+                // 2 同一毫秒或时钟回拨，沿用上次时间戳，序列号用完借用下一毫秒
+                timestamp = prevTimestamp;
+                sequence = (prev & SEQUENCE_MASK) + 1;
+                if (sequence > SEQUENCE_MASK) {
+                    timestamp++;
+                    sequence = 0;
+                }
+            }
+            if (timestamp > MAX_TIMESTAMP) {
+                throw new IllegalStateException("雪花id时间戳已用完");
+            }
+            if (state.compareAndSet(prev, timestamp << SEQUENCE_BITS | sequence)) {
+                if (now < prevTimestamp) {
+                    clockBackwards.increment();
+                }
+                return compose(timestamp, worker, sequence);
+            }
+        }
+    }
+
+    static long compose(long timestamp, long worker, long sequence) {
+        return MODE_BIT | timestamp << (WORKER_BITS + SEQUENCE_BITS) | worker << SEQUENCE_BITS | sequence;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getClockBackwards() {
+        return clockBackwards.sum();
+    }
+
+    /**
+     * 心跳续期，续期失败说明租约已过期，重新租用
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake-heartbeat:10000}")
+    public void heartbeat() {
+        if (workerId < 0) {
+            if (idWorkerProperties.usesMode(IdWorkerProperties.MODE_SNOWFLAKE)) {
+                acquireWorkerId();
+            }
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Long renewed = stringRedisTemplate.execute(
+                    RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId),
+                    token, String.valueOf(idWorkerProperties.getSnowflakeLeaseTtl())
+            );
+            if (renewed != null && renewed == 1) {
+                leaseDeadline = begin + idWorkerProperties.getSnowflakeLeaseTtl();
+                return;
+            }
+            log.warn("雪花id workerId租约丢失, workerId={}", workerId);
+            workerId = -1;
+            acquireWorkerId();
+        } catch (Exception e) {
+            // 续期异常时保留workerId，超过租约到期时间后 nextId 拒绝发号，下次心跳重新租用
+            log.error("雪花id workerId续期失败, workerId={}", workerId, e);
+            if (begin >= leaseDeadline) {
+                workerId = -1;
+            }
+        }
+    }
+
+    /**
+     * 从随机位置开始尝试 SET id:worker:{n} token NX PX ttl
+     */
+    private synchronized void acquireWorkerId() {
+        if (workerId >= 0) {
+            return;
+        }
+        long start = RandomUtil.randomLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long candidate = (start + i) & MAX_WORKER_ID;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(ID_WORKER_KEY + candidate, token,
+                    idWorkerProperties.getSnowflakeLeaseTtl(), TimeUnit.MILLISECONDS);
+            if (BooleanUtil.isTrue(success)) {
+                leaseDeadline = begin + idWorkerProperties.getSnowflakeLeaseTtl();
+                workerId = candidate;
+                log.info("雪花id租用workerId={}", candidate);
+                return;
+            }
+        }
+        log.error("雪花id没有可用的workerId");
+    }
+
+    @PreDestroy
+    private void destroy() {
+        long worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        workerId = -1;
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(ID_WORKER_KEY + worker), token);
+    }
+}
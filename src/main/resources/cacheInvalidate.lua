@@ -0,0 +1,8 @@
+-- 取出到期的待删除缓存key，删除缓存并移出队列，返回已删除的key
+-- KEYS[1] 待删除队列 ARGV[1] 当前时间 ARGV[2] 最多取出数量
+local keys = redis.call('ZRANGEBYSCORE', KEYS[1], 0, ARGV[1], 'LIMIT', 0, ARGV[2])
+if (#keys > 0) then
+	redis.call('DEL', unpack(keys))
+	redis.call('ZREM', KEYS[1], unpack(keys))
+end
+return keys
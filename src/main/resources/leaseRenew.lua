@@ -0,0 +1,5 @@
+-- 续期租约，只能续期自己持有的租约
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+	return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
@@ -0,0 +1,29 @@
+-- 令牌桶限流
+-- 1.参数列表
+-- 1.1.限流key
+local key = KEYS[1]
+-- 1.2.每秒生成令牌数
+local rate = tonumber(ARGV[1])
+-- 1.3.桶容量
+local capacity = tonumber(ARGV[2])
+
+-- 2.当前时间，毫秒
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 3.按上次时间补充令牌 hmget key tokens ts
+local bucket = redis.call('hmget', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1] or capacity)
+local ts = tonumber(bucket[2] or now)
+tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate / 1000)
+
+-- 4.取令牌，成功返回1，失败返回0
+local allowed = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+redis.call('hset', key, 'tokens', tokens, 'ts', now)
+-- 5.桶装满后key自动过期
+redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+return allowed
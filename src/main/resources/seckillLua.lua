@@ -5,22 +5,91 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.订单流分区数
+local partitions = tonumber(ARGV[4] or '1')
+-- 1.5.库存分段数
+local segments = tonumber(ARGV[5] or '1')
+-- 1.6.订单状态过期时间，秒
+local statusTtl = ARGV[6] or '3600'
+-- 1.7.购买用户记录方式 set / bitmap
+local buyerMode = ARGV[7] or 'set'
+-- 1.8.bitmap 每个分片的位数
+local chunkBits = tonumber(ARGV[8] or '1048576')
 
 -- 2.数据key
 -- 2.1.库存key
 local stockKey = 'seckill:stock:' .. voucherId
 -- 2.2.订单key
 local orderKey = 'seckill:order:' .. voucherId
+-- 2.2.0.bitmap模式，按 userId 分片：seckill:order:bitmap:{voucherId}:{userId / chunkBits}，偏移 userId % chunkBits
+local uid = tonumber(userId)
+local bitKey = 'seckill:order:bitmap:' .. voucherId .. ':' .. string.format('%d', math.floor(uid / chunkBits))
+local bitOffset = uid % chunkBits
+-- 2.2.0.1.bitmap模式下的购买用户数
+local buyersKey = 'seckill:order:buyers:' .. voucherId
+-- 2.2.1.限购大于1时的购买数量key
+local countKey = 'seckill:order:count:' .. voucherId
+-- 2.2.2.优惠券元数据key，begin/end/limit
+local voucherKey = 'seckill:voucher:' .. voucherId
+-- 2.2.3.订单状态key
+local statusKey = 'seckill:order:status:' .. orderId
+-- 2.3.订单流key，分区时按 voucherId 取模选择 stream.orders.{n}
+local streamKey = 'stream.orders'
+if (partitions > 1) then
+    streamKey = streamKey .. '.' .. (tonumber(voucherId) % partitions)
+end
 
 -- 3.脚本业务
+-- 3.0.判断秒杀时间 hmget voucherKey begin end limit，没有元数据时不校验
+local meta = redis.call('hmget', voucherKey, 'begin', 'end', 'limit')
+local limit = 1
+if (meta[1]) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(meta[1])) then
+        -- 3.0.1.秒杀尚未开始，返回3
+        return 3
+    end
+    if (now > tonumber(meta[2])) then
+        -- 3.0.2.秒杀已经结束，返回4
+        return 4
+    end
+    limit = tonumber(meta[3] or '1')
+end
 -- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
+if (segments > 1) then
+    -- 3.1.1.分段库存，按 userId 选择起始分段，该分段卖完才尝试下一个
+    local start = tonumber(userId) % segments
+    local found = false
+    for i = 0, segments - 1 do
+        local key = stockKey .. ':' .. ((start + i) % segments)
+        if (tonumber(redis.call('get', key) or '0') > 0) then
+            stockKey = key
+            found = true
+            break
+        end
+    end
+    if (not found) then
+        -- 所有分段都卖完，返回1
+        return 1
+    end
+elseif(tonumber(redis.call('get', stockKey) or '0') <= 0) then
     -- 3.2.库存不足，返回1
     return 1
 end
 
 -- 3.2.判断用户是否下单 SISMEMBER orderKey userId
-if(redis.call('sismember', orderKey, userId) == 1) then
+if (limit > 1) then
+    -- 3.2.1.限购多张，hget countKey userId 判断是否超过限购
+    if (tonumber(redis.call('hget', countKey, userId) or '0') >= limit) then
+        return 2
+    end
+elseif (buyerMode == 'bitmap') then
+    -- 3.2.2.bitmap模式 getbit bitKey bitOffset
+    if (redis.call('getbit', bitKey, bitOffset) == 1) then
+        return 2
+    end
+elseif(redis.call('sismember', orderKey, userId) == 1) then
     -- 3.3.存在，说明是重复下单，返回2
     return 2
 end
@@ -28,7 +97,17 @@ end
 -- 3.4.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
 -- 3.5.下单（保存用户）sadd orderKey userId
-redis.call('sadd', orderKey, userId)
+if (limit > 1) then
+    redis.call('hincrby', countKey, userId, 1)
+elseif (buyerMode == 'bitmap') then
+    redis.call('setbit', bitKey, bitOffset, 1)
+    redis.call('incr', buyersKey)
+else
+    redis.call('sadd', orderKey, userId)
+end
 -- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.7.订单状态：排队中，记录下单用户，只允许本人查询
+redis.call('hset', statusKey, 'status', 'QUEUED', 'userId', userId)
+redis.call('expire', statusKey, statusTtl)
 return 0
\ No newline at end of file
@@ -0,0 +1,9 @@
+-- 商铺hash缓存计数字段自增，缓存不存在或为空值标记时不创建，避免写入只有一个字段的残缺缓存
+-- 无论缓存是否存在都递增计数版本，正在查询数据库重建的缓存写入时发现版本变化会放弃写入
+-- KEYS[1] 商铺hash KEYS[2] 计数版本 ARGV[1] 字段 ARGV[2] 增量 ARGV[3] 计数版本有效期，毫秒
+redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[3])
+if (redis.call('HEXISTS', KEYS[1], 'id') == 0) then
+	return nil
+end
+return redis.call('HINCRBY', KEYS[1], ARGV[1], ARGV[2])
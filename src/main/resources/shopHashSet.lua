@@ -0,0 +1,17 @@
+-- 原子写入商铺hash缓存：先删除旧的hash与images再整体写入，读取方不会看到写了一半的缓存
+-- KEYS[1] 商铺hash KEYS[2] 商铺images KEYS[3] 计数版本
+-- ARGV[1] 查询数据库前读取的计数版本，'*' 不检查 ARGV[2] 真实过期时间毫秒，0 不过期 ARGV[3] images，空串不写入
+-- ARGV[4..] 字段、值交替
+-- 查询数据库之后计数字段被自增过时不写入，返回0，避免旧数据覆盖这期间的自增
+if (ARGV[1] ~= '*' and (redis.call('GET', KEYS[3]) or '') ~= ARGV[1]) then
+	return 0
+end
+redis.call('DEL', KEYS[1], KEYS[2])
+redis.call('HSET', KEYS[1], unpack(ARGV, 4))
+if (tonumber(ARGV[2]) > 0) then
+	redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+if (ARGV[3] ~= '') then
+	redis.call('SET', KEYS[2], ARGV[3])
+end
+return 1
@@ -0,0 +1,25 @@
+-- 减少分段库存，依次从有库存的分段扣除，每个分段最多扣到0
+-- KEYS 各分段库存key ARGV[1] 减少数量
+-- 剩余库存合计不足时不做修改，返回-1；否则返回0
+local want = tonumber(ARGV[1])
+local stocks = {}
+local total = 0
+for i, key in ipairs(KEYS) do
+	local stock = math.max(tonumber(redis.call('get', key) or '0'), 0)
+	stocks[i] = stock
+	total = total + stock
+end
+if (total < want) then
+	return -1
+end
+for i, key in ipairs(KEYS) do
+	if (want <= 0) then
+		break
+	end
+	local take = math.min(stocks[i], want)
+	if (take > 0) then
+		redis.call('decrby', key, take)
+		want = want - take
+	end
+end
+return 0
@@ -0,0 +1,11 @@
+-- 库存未初始化时一次写入所有分段
+-- KEYS[1] 单key库存 KEYS[2] 分段布局的第0段 KEYS[3..] 当前分段数下的库存key
+-- ARGV 与 KEYS[3..] 一一对应的库存
+-- 任一布局的库存已存在（修改过分段数时旧分段仍在）时不写入，返回0；写入返回1
+if (redis.call('exists', KEYS[1]) == 1 or redis.call('exists', KEYS[2]) == 1) then
+	return 0
+end
+for i = 3, #KEYS do
+	redis.call('set', KEYS[i], ARGV[i - 2])
+end
+return 1
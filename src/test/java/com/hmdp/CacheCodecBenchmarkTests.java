@@ -0,0 +1,97 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存编码对比：json 与 binary 的字节数和编解码耗时，基准测试，mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+class CacheCodecBenchmarkTests {
+
+    private static final int WARMUP = 20000;
+    private static final int ROUNDS = 100000;
+
+    private final CacheCodec json = new JsonCacheCodec();
+    private final CacheCodec binary = new BinaryCacheCodec();
+
+    @Test
+    void compareCodecs() {
+        LocalDateTime now = LocalDateTime.of(2023, 4, 3, 10, 30, 15);
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(now).setUpdateTime(now);
+        Blog blog = new Blog().setId(4L).setShopId(4L).setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br>手执烟火谋生活·心怀诗意以谋爱·<br>当然<br>男朋友给不了的浪漫要学会自己给🍒<br>无法重来的一生·尽量快乐.")
+                .setLiked(1).setComments(104).setCreateTime(now).setUpdateTime(now);
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_slxaxy2au9f3tanffaxr");
+        user.setIcon("/imgs/icons/kjdf.jpg");
+
+        System.out.printf("%-8s %-8s %8s %12s %12s%n", "type", "codec", "bytes", "encode ns", "decode ns");
+        compare("Shop", shop);
+        compare("Blog", blog);
+        compare("UserDTO", user);
+    }
+
+    private void compare(String name, Object value) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        Class<?> type = value.getClass();
+
+        byte[] jsonBytes = json.encodeLogical(redisData);
+        byte[] binaryBytes = binary.encodeLogical(redisData);
+        assertEquals(value, json.decodeLogical(jsonBytes, type).getData());
+        assertEquals(value, binary.decodeLogical(binaryBytes, type).getData());
+        assertEquals(value, binary.decode(binary.encode(value), type));
+        assertTrue(binaryBytes.length < jsonBytes.length);
+
+        // 原有读取方式：先转 RedisData，再把 data 转为实体
+        String jsonStr = new String(jsonBytes, StandardCharsets.UTF_8);
+        long legacyDecode = measure(() -> {
+            RedisData data = JSONUtil.toBean(jsonStr, RedisData.class);
+            JSONUtil.toBean((JSONObject) data.getData(), type);
+        });
+        System.out.printf("%-8s %-8s %8d %12s %12d%n", name, "legacy", jsonBytes.length, "-", legacyDecode);
+        System.out.printf("%-8s %-8s %8d %12d %12d%n", name, "json", jsonBytes.length,
+                measure(() -> json.encodeLogical(redisData)), measure(() -> json.decodeLogical(jsonBytes, type)));
+        System.out.printf("%-8s %-8s %8d %12d %12d%n", name, "binary", binaryBytes.length,
+                measure(() -> binary.encodeLogical(redisData)), measure(() -> binary.decodeLogical(binaryBytes, type)));
+    }
+
+    /**
+     * @return 每次操作平均纳秒
+     */
+    private long measure(Runnable task) {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - begin) / ROUNDS;
+    }
+}
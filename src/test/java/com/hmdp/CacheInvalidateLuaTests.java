@@ -0,0 +1,64 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 延迟删除重试队列出队脚本的行为
+ */
+class CacheInvalidateLuaTests extends RedisScriptTestSupport {
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> POP_SCRIPT = script("cacheInvalidate.lua", List.class);
+
+    /**
+     * 使用单独的待删除队列，避免影响真实缓存
+     */
+    private static final String RETRY_KEY = "test:cache:invalidate:retry";
+    private static final String KEY_1 = "test:cache:invalidate:1";
+    private static final String KEY_2 = "test:cache:invalidate:2";
+    private static final String KEY_3 = "test:cache:invalidate:3";
+
+    @Test
+    void popDeletesOnlyDueKeysUpToBatchSize() {
+        stringRedisTemplate.opsForValue().set(KEY_1, "1");
+        stringRedisTemplate.opsForValue().set(KEY_2, "2");
+        stringRedisTemplate.opsForValue().set(KEY_3, "3");
+        stringRedisTemplate.opsForZSet().add(RETRY_KEY, KEY_1, 100);
+        stringRedisTemplate.opsForZSet().add(RETRY_KEY, KEY_2, 200);
+        stringRedisTemplate.opsForZSet().add(RETRY_KEY, KEY_3, 5000);
+
+        // 1 每次最多取出 batch 个，按到期时间先后
+        assertEquals(Collections.singletonList(KEY_1), pop(1000, 1));
+        assertFalse(stringRedisTemplate.hasKey(KEY_1));
+        assertTrue(stringRedisTemplate.hasKey(KEY_2));
+
+        // 2 未到期的留在队列中
+        assertEquals(Collections.singletonList(KEY_2), pop(1000, 10));
+        assertFalse(stringRedisTemplate.hasKey(KEY_2));
+        assertTrue(stringRedisTemplate.hasKey(KEY_3));
+        assertEquals(1L, stringRedisTemplate.opsForZSet().zCard(RETRY_KEY));
+
+        // 3 没有到期的key返回空
+        assertEquals(Collections.emptyList(), pop(1000, 10));
+    }
+
+    private List<?> pop(long now, int batchSize) {
+        return stringRedisTemplate.execute(POP_SCRIPT, Collections.singletonList(RETRY_KEY),
+                String.valueOf(now), String.valueOf(batchSize));
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(Arrays.asList(RETRY_KEY, KEY_1, KEY_2, KEY_3));
+    }
+}
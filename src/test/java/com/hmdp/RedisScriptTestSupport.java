@@ -0,0 +1,56 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+/**
+ * lua脚本行为测试：直接连接redis执行脚本，不启动spring容器，redis不可用时跳过
+ * 地址通过 -Dtest.redis.host -Dtest.redis.port -Dtest.redis.password 指定，默认 127.0.0.1:6379
+ */
+abstract class RedisScriptTestSupport {
+
+    protected static StringRedisTemplate stringRedisTemplate;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    @BeforeAll
+    static void connect() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("test.redis.host", "127.0.0.1"), Integer.getInteger("test.redis.port", 6379));
+        String password = System.getProperty("test.redis.password");
+        if (password != null) {
+            config.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        boolean available;
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+            available = true;
+        } catch (Exception e) {
+            available = false;
+        }
+        Assumptions.assumeTrue(available, "redis不可用，跳过lua脚本测试");
+    }
+
+    @AfterAll
+    static void close() {
+        connectionFactory.destroy();
+    }
+
+    protected static <T> DefaultRedisScript<T> script(String location, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(location));
+        script.setResultType(resultType);
+        return script;
+    }
+}
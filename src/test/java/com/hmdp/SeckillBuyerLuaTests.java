@@ -0,0 +1,55 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀脚本的一人一单校验：购买用户set与bitmap两种模式
+ */
+class SeckillBuyerLuaTests extends SeckillScriptTestSupport {
+
+    @Test
+    void setModeRejectsSecondOrderOfSameUser() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+
+        assertEquals(0L, seckill(1L, 1001L, "set"));
+        assertEquals(2L, seckill(1L, 1002L, "set"));
+
+        assertEquals("1", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+        assertTrue(stringRedisTemplate.opsForSet().isMember(ORDER_KEY, "1"));
+        assertEquals(1L, stringRedisTemplate.opsForStream().size(STREAM_KEY));
+    }
+
+    @Test
+    void bitmapModeSetsBitInUserChunk() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+        long userId = CHUNK_BITS * 3 + 5;
+
+        assertEquals(0L, seckill(userId, 1001L, "bitmap"));
+        assertEquals(2L, seckill(userId, 1002L, "bitmap"));
+
+        assertTrue(stringRedisTemplate.opsForValue().getBit(bitmapKey(3), 5));
+        assertFalse(stringRedisTemplate.opsForValue().getBit(bitmapKey(0), 5));
+        assertEquals("1", stringRedisTemplate.opsForValue().get(BUYERS_KEY));
+        assertFalse(stringRedisTemplate.hasKey(ORDER_KEY));
+        assertEquals("1", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+
+        // 同一分片内的其他用户不受影响
+        assertEquals(0L, seckill(userId + 1, 1003L, "bitmap"));
+        assertEquals("2", stringRedisTemplate.opsForValue().get(BUYERS_KEY));
+    }
+
+    @Test
+    void rejectsWhenSoldOut() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "0");
+
+        assertEquals(1L, seckill(1L, 1001L, "set"));
+        assertEquals(1L, seckill(1L, 1002L, "bitmap"));
+
+        assertFalse(stringRedisTemplate.hasKey(ORDER_KEY));
+        assertFalse(stringRedisTemplate.hasKey(STREAM_KEY));
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 一人一单购买用户记录：set 与分片 bitmap 的内存对比，基准测试，mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class SeckillBuyerMemoryTests {
+
+    private static final String SET_KEY = "bench:seckill:order:set";
+    private static final String BITMAP_KEY = "bench:seckill:order:bitmap:";
+    private static final long CHUNK_BITS = 1048576L;
+
+    /**
+     * 每个id区间的购买用户数，共两个相距很远的区间，模拟稀疏的用户id
+     */
+    private static final int BUYERS_PER_RANGE = 100000;
+    private static final long[] RANGE_BASES = {1L, 50000000L};
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Test
+    void compareSetAndBitmapMemory() {
+        // 1 分批写入 sadd 和 setbit
+        for (long base : RANGE_BASES) {
+            for (int from = 0; from < BUYERS_PER_RANGE; from += 1000) {
+                long start = base + from;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (long userId = start; userId < start + 1000; userId++) {
+                        conn.sAdd(SET_KEY, String.valueOf(userId));
+                        conn.setBit(BITMAP_KEY + userId / CHUNK_BITS, userId % CHUNK_BITS, true);
+                    }
+                    return null;
+                });
+            }
+        }
+        // 2 memory usage 统计
+        long setBytes = memoryUsage(SET_KEY);
+        long bitmapBytes = 0;
+        Set<String> chunkKeys = stringRedisTemplate.keys(BITMAP_KEY + "*");
+        for (String key : chunkKeys) {
+            bitmapBytes += memoryUsage(key);
+        }
+        long buyers = (long) BUYERS_PER_RANGE * RANGE_BASES.length;
+        System.out.printf("buyers=%d set=%d bytes (%.1f B/user), bitmap=%d bytes in %d chunks (%.2f B/user), ratio=%.1fx%n",
+                buyers, setBytes, setBytes / (double) buyers, bitmapBytes, chunkKeys.size(),
+                bitmapBytes / (double) buyers, setBytes / (double) bitmapBytes);
+        // 3 至少节省一个数量级
+        assertTrue(setBytes >= bitmapBytes * 10);
+    }
+
+    private long memoryUsage(String key) {
+        Object bytes = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                ((StringRedisConnection) connection).execute("MEMORY", "USAGE", key, "SAMPLES", "0"));
+        return ((Number) bytes).longValue();
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(SET_KEY);
+        Set<String> chunkKeys = stringRedisTemplate.keys(BITMAP_KEY + "*");
+        if (chunkKeys != null && !chunkKeys.isEmpty()) {
+            stringRedisTemplate.delete(chunkKeys);
+        }
+    }
+}
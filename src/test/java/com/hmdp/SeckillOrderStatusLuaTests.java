@@ -0,0 +1,40 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀脚本写入的订单状态缓存
+ */
+class SeckillOrderStatusLuaTests extends SeckillScriptTestSupport {
+
+    @Test
+    void queuedOrderWritesStatusWithTtl() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+
+        assertEquals(0L, seckill(1L, 1001L, "set"));
+
+        Map<Object, Object> status = stringRedisTemplate.opsForHash().entries(statusKey(1001L));
+        assertEquals("QUEUED", status.get("status"));
+        assertEquals("1", status.get("userId"));
+        assertTrue(stringRedisTemplate.getExpire(statusKey(1001L)) > 0);
+    }
+
+    @Test
+    void rejectedOrderWritesNoStatus() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "2");
+
+        assertEquals(0L, seckill(1L, 1001L, "set"));
+        assertEquals(2L, seckill(1L, 1002L, "set"));
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "0");
+        assertEquals(1L, seckill(2L, 1003L, "set"));
+
+        assertFalse(stringRedisTemplate.hasKey(statusKey(1002L)));
+        assertFalse(stringRedisTemplate.hasKey(statusKey(1003L)));
+    }
+}
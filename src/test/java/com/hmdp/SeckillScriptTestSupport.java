@@ -0,0 +1,64 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 秒杀下单脚本测试的公共部分：脚本调用、测试用key与清理
+ */
+abstract class SeckillScriptTestSupport extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT = script("seckillLua.lua", Long.class);
+
+    /**
+     * 使用数据库中不存在的优惠券id，分区数取 id + 1 让订单写入单独的 stream.orders.{id}，不影响真实订单流
+     */
+    protected static final long VOUCHER_ID = 900000001L;
+    private static final String PARTITIONS = String.valueOf(VOUCHER_ID + 1);
+    protected static final long CHUNK_BITS = 1024L;
+
+    protected static final String STOCK_KEY = "seckill:stock:" + VOUCHER_ID;
+    protected static final String ORDER_KEY = "seckill:order:" + VOUCHER_ID;
+    protected static final String COUNT_KEY = "seckill:order:count:" + VOUCHER_ID;
+    protected static final String BUYERS_KEY = "seckill:order:buyers:" + VOUCHER_ID;
+    protected static final String VOUCHER_KEY = "seckill:voucher:" + VOUCHER_ID;
+    protected static final String STREAM_KEY = "stream.orders." + VOUCHER_ID;
+
+    protected Long seckill(long userId, long orderId, String buyerMode) {
+        return stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
+                String.valueOf(VOUCHER_ID), String.valueOf(userId), String.valueOf(orderId), PARTITIONS,
+                "1", "60", buyerMode, String.valueOf(CHUNK_BITS));
+    }
+
+    protected void voucherMeta(long begin, long end, int limit) {
+        Map<String, String> meta = new HashMap<>(4);
+        meta.put("begin", String.valueOf(begin));
+        meta.put("end", String.valueOf(end));
+        meta.put("limit", String.valueOf(limit));
+        stringRedisTemplate.opsForHash().putAll(VOUCHER_KEY, meta);
+    }
+
+    protected static String statusKey(long orderId) {
+        return "seckill:order:status:" + orderId;
+    }
+
+    protected static String bitmapKey(long chunk) {
+        return "seckill:order:bitmap:" + VOUCHER_ID + ":" + chunk;
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(Arrays.asList(STOCK_KEY, ORDER_KEY, COUNT_KEY, BUYERS_KEY, VOUCHER_KEY, STREAM_KEY,
+                statusKey(1001L), statusKey(1002L), statusKey(1003L)));
+        Set<String> bitmapKeys = stringRedisTemplate.keys("seckill:order:bitmap:" + VOUCHER_ID + ":*");
+        if (bitmapKeys != null && !bitmapKeys.isEmpty()) {
+            stringRedisTemplate.delete(bitmapKeys);
+        }
+    }
+}
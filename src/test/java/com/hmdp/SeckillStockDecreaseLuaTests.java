@@ -0,0 +1,59 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分段库存扣减脚本的行为
+ */
+class SeckillStockDecreaseLuaTests extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<Long> DECREASE_SCRIPT = script("stockDecrease.lua", Long.class);
+
+    /**
+     * 使用数据库中不存在的优惠券id
+     */
+    private static final String STOCK_KEY = "seckill:stock:900000001";
+    private static final List<String> SEGMENT_KEYS = Arrays.asList(STOCK_KEY + ":0", STOCK_KEY + ":1", STOCK_KEY + ":2");
+
+    @Test
+    void decreaseTakesFromSegmentsInOrderAndClampsAtZero() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":0", "5");
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":1", "1");
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":2", "-2");
+
+        assertEquals(0L, decrease(4));
+        assertEquals(Arrays.asList("1", "1", "-2"), segments());
+
+        assertEquals(0L, decrease(2));
+        assertEquals(Arrays.asList("0", "0", "-2"), segments());
+    }
+
+    @Test
+    void decreaseRejectsMoreThanRemaining() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":0", "1");
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":1", "2");
+
+        assertEquals(-1L, decrease(4));
+        assertEquals(Arrays.asList("1", "2", null), segments());
+    }
+
+    private Long decrease(long count) {
+        return stringRedisTemplate.execute(DECREASE_SCRIPT, SEGMENT_KEYS, String.valueOf(count));
+    }
+
+    private List<String> segments() {
+        return stringRedisTemplate.opsForValue().multiGet(SEGMENT_KEYS);
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(SEGMENT_KEYS);
+    }
+}
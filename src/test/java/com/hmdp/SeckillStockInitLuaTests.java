@@ -0,0 +1,78 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 预热写入库存脚本：任一布局的库存已存在时不再写入
+ */
+class SeckillStockInitLuaTests extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<Long> INIT_SCRIPT = script("stockInit.lua", Long.class);
+
+    /**
+     * 使用数据库中不存在的优惠券id
+     */
+    private static final String STOCK_KEY = "seckill:stock:900000001";
+    private static final List<String> ALL_KEYS = Arrays.asList(STOCK_KEY, STOCK_KEY + ":0", STOCK_KEY + ":1",
+            STOCK_KEY + ":2");
+
+    @Test
+    void writesAllSegmentsWhenNothingExists() {
+        assertEquals(1L, init3("4", "3", "3"));
+
+        assertEquals(Arrays.asList(null, "4", "3", "3"), stocks());
+    }
+
+    @Test
+    void skipsWhenLegacySingleKeyExists() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+
+        assertEquals(0L, init3("4", "3", "3"));
+
+        assertEquals(Arrays.asList("5", null, null, null), stocks());
+    }
+
+    @Test
+    void skipsWhenSegmentCountChanged() {
+        // 之前按2段写入，现在改为3段
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":0", "2");
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":1", "1");
+
+        assertEquals(0L, init3("4", "3", "3"));
+
+        assertFalse(stringRedisTemplate.hasKey(STOCK_KEY + ":2"));
+    }
+
+    @Test
+    void skipsSingleKeyLayoutWhenSegmentsExist() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY + ":0", "2");
+
+        assertEquals(0L, stringRedisTemplate.execute(INIT_SCRIPT,
+                Arrays.asList(STOCK_KEY, STOCK_KEY + ":0", STOCK_KEY), "10"));
+
+        assertFalse(stringRedisTemplate.hasKey(STOCK_KEY));
+    }
+
+    private Long init3(String... stocks) {
+        return stringRedisTemplate.execute(INIT_SCRIPT,
+                Arrays.asList(STOCK_KEY, STOCK_KEY + ":0", STOCK_KEY + ":0", STOCK_KEY + ":1", STOCK_KEY + ":2"),
+                (Object[]) stocks);
+    }
+
+    private List<String> stocks() {
+        return stringRedisTemplate.opsForValue().multiGet(ALL_KEYS);
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(ALL_KEYS);
+    }
+}
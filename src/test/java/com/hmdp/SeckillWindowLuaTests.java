@@ -0,0 +1,41 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 秒杀脚本内的时间窗口与限购校验
+ */
+class SeckillWindowLuaTests extends SeckillScriptTestSupport {
+
+    @Test
+    void limitAboveOneCountsOrdersPerUser() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+        long now = System.currentTimeMillis();
+        voucherMeta(now - 60000, now + 60000, 2);
+
+        assertEquals(0L, seckill(1L, 1001L, "bitmap"));
+        assertEquals(0L, seckill(1L, 1002L, "bitmap"));
+        assertEquals(2L, seckill(1L, 1003L, "bitmap"));
+
+        assertEquals("2", stringRedisTemplate.opsForHash().get(COUNT_KEY, "1"));
+        assertEquals("3", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+        assertNull(stringRedisTemplate.opsForValue().get(BUYERS_KEY));
+    }
+
+    @Test
+    void rejectsOutsideTimeWindow() {
+        stringRedisTemplate.opsForValue().set(STOCK_KEY, "5");
+        long now = System.currentTimeMillis();
+
+        voucherMeta(now + 60000, now + 120000, 1);
+        assertEquals(3L, seckill(1L, 1001L, "set"));
+
+        voucherMeta(now - 120000, now - 60000, 1);
+        assertEquals(4L, seckill(1L, 1002L, "set"));
+
+        assertEquals("5", stringRedisTemplate.opsForValue().get(STOCK_KEY));
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopHashCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_IMAGES_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商铺缓存结构对比：json 字符串与 hash 的内存占用、完整读取与部分读取耗时，基准测试，mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class ShopCacheLayoutBenchmarkTests {
+
+    /**
+     * 使用数据库中不存在的id，避免覆盖真实缓存
+     */
+    private static final long BASE_ID = 900000000L;
+    private static final int SHOPS = 1000;
+    private static final int ROUNDS = 5;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ShopHashCache shopHashCache;
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    @Test
+    void compareJsonAndHashLayout() {
+        // 1 两种结构各写入一批商铺
+        List<Shop> shops = new ArrayList<>(SHOPS);
+        Map<String, Shop> values = new LinkedHashMap<>(SHOPS * 2);
+        for (int i = 0; i < SHOPS; i++) {
+            Shop shop = shop(BASE_ID + i);
+            shops.add(shop);
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        cacheClient.setBatchWithLogicalExpire(values, 30L, TimeUnit.MINUTES);
+        shopHashCache.setBatch(shops, 30L, TimeUnit.MINUTES);
+
+        // 2 内存占用，hash结构包含单独存放的images
+        long jsonBytes = 0;
+        long hashBytes = 0;
+        long imagesBytes = 0;
+        for (Shop shop : shops) {
+            jsonBytes += memoryUsage(CACHE_SHOP_KEY + shop.getId());
+            hashBytes += memoryUsage(CACHE_SHOP_HASH_KEY + shop.getId());
+            imagesBytes += memoryUsage(CACHE_SHOP_IMAGES_KEY + shop.getId());
+        }
+        String encoding = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                connection.keyCommands().encodingOf((CACHE_SHOP_HASH_KEY + BASE_ID).getBytes(StandardCharsets.UTF_8)).raw());
+        System.out.printf("shops=%d json=%d bytes (%.0f B/shop), hash=%d + images=%d bytes (%.0f B/shop), encoding=%s%n",
+                SHOPS, jsonBytes, jsonBytes / (double) SHOPS, hashBytes, imagesBytes,
+                (hashBytes + imagesBytes) / (double) SHOPS, encoding);
+        assertTrue(Arrays.asList("listpack", "ziplist").contains(encoding));
+
+        // 3 读取耗时：json 完整读取并解析，hash 完整读取(含images)，hash 只读取列表页需要的字段
+        long jsonNanos = 0;
+        long hashNanos = 0;
+        long partialNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Shop shop : shops) {
+                long begin = System.nanoTime();
+                String value = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + shop.getId());
+                RedisData redisData = json.decodeLogical(value.getBytes(StandardCharsets.UTF_8), Shop.class);
+                jsonNanos += System.nanoTime() - begin;
+                assertEquals(shop.getName(), ((Shop) redisData.getData()).getName());
+
+                begin = System.nanoTime();
+                Shop full = shopHashCache.queryById(shop.getId(), id -> null, 30L, TimeUnit.MINUTES);
+                hashNanos += System.nanoTime() - begin;
+                assertEquals(shop.getUpdateTime(), full.getUpdateTime());
+                assertEquals(shop.getImages(), full.getImages());
+
+                begin = System.nanoTime();
+                List<String> partial = stringRedisTemplate.<String, String>opsForHash().multiGet(
+                        CACHE_SHOP_HASH_KEY + shop.getId(),
+                        Arrays.asList(ShopHashCache.NAME, ShopHashCache.SOLD, ShopHashCache.SCORE));
+                partialNanos += System.nanoTime() - begin;
+                assertEquals(String.valueOf(shop.getSold()), partial.get(1));
+            }
+        }
+        long reads = (long) SHOPS * ROUNDS;
+        System.out.printf("json full=%d ns, hash full=%d ns, hash partial=%d ns per read%n",
+                jsonNanos / reads, hashNanos / reads, partialNanos / reads);
+
+        // 4 计数字段原子自增，不存在的缓存不创建
+        assertEquals(shops.get(0).getSold() + 1L, shopHashCache.increment(BASE_ID, ShopHashCache.SOLD, 1));
+        assertNull(shopHashCache.increment(BASE_ID + SHOPS, ShopHashCache.SOLD, 1));
+        assertEquals(0L, (long) stringRedisTemplate.countExistingKeys(
+                Arrays.asList(CACHE_SHOP_HASH_KEY + (BASE_ID + SHOPS))));
+    }
+
+    private static Shop shop(long id) {
+        LocalDateTime now = LocalDateTime.of(2023, 4, 3, 10, 30, 15);
+        return new Shop().setId(id).setName("103茶餐厅" + id).setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg,"
+                        + "https://qcloud.dpfile.com/pc/IOf6VX3qaBgFXFVgp75w-KKJmWZjFc8GXDU8g9bQC6YGCpAmG00QbfT4vCCBj7njuzFvxlbkWx5uwqY2qcjixFEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vmIU_8ZGOT1OjpJmLxG6urQ.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L)
+                .setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00")
+                .setCreateTime(now).setUpdateTime(now);
+    }
+
+    private long memoryUsage(String key) {
+        Object bytes = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                ((StringRedisConnection) connection).execute("MEMORY", "USAGE", key, "SAMPLES", "0"));
+        return ((Number) bytes).longValue();
+    }
+
+    @AfterEach
+    void clean() {
+        List<String> keys = new ArrayList<>(SHOPS * 3);
+        for (int i = 0; i < SHOPS; i++) {
+            long id = BASE_ID + i;
+            keys.add(CACHE_SHOP_KEY + id);
+            keys.addAll(Arrays.asList(ShopHashCache.keysOf(id)));
+        }
+        stringRedisTemplate.delete(keys);
+    }
+}
@@ -0,0 +1,113 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 商铺hash缓存的计数自增脚本与原子写入脚本
+ */
+class ShopHashLuaTests extends RedisScriptTestSupport {
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT = script("shopHashIncr.lua", Long.class);
+    private static final DefaultRedisScript<Long> SET_SCRIPT = script("shopHashSet.lua", Long.class);
+
+    /**
+     * 使用数据库中不存在的商铺id，避免影响真实缓存
+     */
+    private static final String SHOP_KEY = "cache:shop:hash:900000001";
+    private static final String IMAGES_KEY = "cache:shop:images:900000001";
+    private static final String VERSION_KEY = "cache:shop:counter:version:900000001";
+
+    @Test
+    void incrementSkipsMissingCacheButBumpsVersion() {
+        assertNull(increment("sold", 1));
+        assertFalse(stringRedisTemplate.hasKey(SHOP_KEY));
+        assertEquals("1", stringRedisTemplate.opsForValue().get(VERSION_KEY));
+        assertTrue(stringRedisTemplate.getExpire(VERSION_KEY) > 0);
+    }
+
+    @Test
+    void incrementSkipsNullMarker() {
+        stringRedisTemplate.opsForHash().put(SHOP_KEY, "_expireAt", "0");
+
+        assertNull(increment("sold", 1));
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(SHOP_KEY, "sold"));
+    }
+
+    @Test
+    void incrementUpdatesCachedShop() {
+        Map<String, String> hash = new HashMap<>(4);
+        hash.put("id", "900000001");
+        hash.put("sold", "10");
+        hash.put("_expireAt", String.valueOf(System.currentTimeMillis() + 60000));
+        stringRedisTemplate.opsForHash().putAll(SHOP_KEY, hash);
+
+        assertEquals(13L, increment("sold", 3));
+        assertEquals(-1L, increment("comments", -1));
+        assertEquals("13", stringRedisTemplate.opsForHash().get(SHOP_KEY, "sold"));
+    }
+
+    @Test
+    void setReplacesWholeEntry() {
+        stringRedisTemplate.opsForHash().put(SHOP_KEY, "area", "旧商圈");
+        stringRedisTemplate.opsForValue().set(IMAGES_KEY, "old.jpg");
+
+        assertEquals(1L, set("*", 0, "", "id", "900000001", "sold", "10"));
+
+        assertFalse(stringRedisTemplate.opsForHash().hasKey(SHOP_KEY, "area"));
+        assertEquals("10", stringRedisTemplate.opsForHash().get(SHOP_KEY, "sold"));
+        assertFalse(stringRedisTemplate.hasKey(IMAGES_KEY));
+        assertEquals(-1L, stringRedisTemplate.getExpire(SHOP_KEY));
+    }
+
+    @Test
+    void setWritesNullMarkerWithTtl() {
+        assertEquals(1L, set("", 60000, "", "_expireAt", "1"));
+
+        assertEquals(1L, stringRedisTemplate.opsForHash().size(SHOP_KEY));
+        assertTrue(stringRedisTemplate.getExpire(SHOP_KEY) > 0);
+    }
+
+    @Test
+    void setSkipsWhenCounterChangedDuringRebuild() {
+        // 重建前读取的版本为空，查询数据库期间发生一次自增
+        increment("sold", 1);
+
+        assertEquals(0L, set("", 0, "a.jpg", "id", "900000001", "sold", "10"));
+        assertFalse(stringRedisTemplate.hasKey(SHOP_KEY));
+
+        // 版本一致时写入
+        assertEquals(1L, set("1", 0, "a.jpg", "id", "900000001", "sold", "11"));
+        assertEquals("11", stringRedisTemplate.opsForHash().get(SHOP_KEY, "sold"));
+        assertEquals("a.jpg", stringRedisTemplate.opsForValue().get(IMAGES_KEY));
+    }
+
+    private Long increment(String field, long delta) {
+        return stringRedisTemplate.execute(INCR_SCRIPT, Arrays.asList(SHOP_KEY, VERSION_KEY),
+                field, String.valueOf(delta), "60000");
+    }
+
+    private Long set(String version, long ttl, String images, String... fieldsAndValues) {
+        List<String> args = new ArrayList<>(Arrays.asList(version, String.valueOf(ttl), images));
+        args.addAll(Arrays.asList(fieldsAndValues));
+        return stringRedisTemplate.execute(SET_SCRIPT, Arrays.asList(SHOP_KEY, IMAGES_KEY, VERSION_KEY),
+                args.toArray());
+    }
+
+    @AfterEach
+    void clean() {
+        stringRedisTemplate.delete(Arrays.asList(SHOP_KEY, IMAGES_KEY, VERSION_KEY));
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 批量创建订单时的一人一单校验
+ */
+class VoucherOrderServiceImplTests {
+
+    @Test
+    void rejectsSecondOrderOfSameUserInBatch() {
+        VoucherOrder first = order(1L, 10L);
+        VoucherOrder other = order(2L, 11L);
+        VoucherOrder second = order(3L, 10L);
+        List<VoucherOrder> orders = new ArrayList<>(Arrays.asList(first, other, second));
+
+        List<VoucherOrder> rejected = VoucherOrderServiceImpl.rejectOverLimit(orders, Collections.emptyMap(), 1);
+
+        assertEquals(Collections.singletonList(second), rejected);
+        assertEquals(Arrays.asList(first, other), orders);
+    }
+
+    @Test
+    void countsOrdersAlreadyInDatabase() {
+        VoucherOrder bought = order(1L, 10L);
+        VoucherOrder fresh = order(2L, 11L);
+        List<VoucherOrder> orders = new ArrayList<>(Arrays.asList(bought, fresh));
+        Map<Long, Long> boughtOfUser = new HashMap<>();
+        boughtOfUser.put(10L, 1L);
+
+        List<VoucherOrder> rejected = VoucherOrderServiceImpl.rejectOverLimit(orders, boughtOfUser, 1);
+
+        assertEquals(Collections.singletonList(bought), rejected);
+        assertEquals(Collections.singletonList(fresh), orders);
+        // 不修改传入的已有订单数
+        assertEquals(1L, boughtOfUser.get(10L));
+    }
+
+    @Test
+    void allowsUpToLimitAboveOne() {
+        List<VoucherOrder> orders = new ArrayList<>(Arrays.asList(order(1L, 10L), order(2L, 10L), order(3L, 10L)));
+        Map<Long, Long> boughtOfUser = new HashMap<>();
+        boughtOfUser.put(10L, 1L);
+
+        List<VoucherOrder> rejected = VoucherOrderServiceImpl.rejectOverLimit(orders, boughtOfUser, 2);
+
+        assertEquals(1, orders.size());
+        assertEquals(2, rejected.size());
+        assertEquals(1L, orders.get(0).getId());
+    }
+
+    private static VoucherOrder order(long id, long userId) {
+        return new VoucherOrder().setId(id).setUserId(userId).setVoucherId(1L);
+    }
+}
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 二进制编解码：往返一致，截断或损坏的数据返回null
+ */
+class BinaryCacheCodecTests {
+
+    private final BinaryCacheCodec codec = new BinaryCacheCodec();
+
+    @Test
+    void roundTripsEntity() {
+        Shop shop = shop();
+
+        assertEquals(shop, codec.decode(codec.encode(shop), Shop.class));
+    }
+
+    @Test
+    void roundTripsLogicalEntry() {
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.of(2023, 4, 1, 12, 0, 0, 123000000));
+        redisData.setDelta(42L);
+
+        RedisData decoded = codec.decodeLogical(codec.encodeLogical(redisData), Shop.class);
+
+        assertEquals(redisData, decoded);
+    }
+
+    @Test
+    void truncatedBytesDecodeToNull() {
+        byte[] bytes = codec.encode(shop());
+        for (int length = 0; length < bytes.length; length++) {
+            assertNull(codec.decode(Arrays.copyOf(bytes, length), Shop.class), "length=" + length);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.of(2023, 4, 1, 12, 0));
+        byte[] logical = codec.encodeLogical(redisData);
+        for (int length = 0; length < logical.length; length++) {
+            assertNull(codec.decodeLogical(Arrays.copyOf(logical, length), Shop.class), "length=" + length);
+        }
+    }
+
+    @Test
+    void trailingBytesDecodeToNull() {
+        byte[] bytes = codec.encode(shop());
+
+        assertNull(codec.decode(Arrays.copyOf(bytes, bytes.length + 1), Shop.class));
+    }
+
+    @Test
+    void corruptedBytesNeverThrow() {
+        byte[] bytes = codec.encode(shop());
+        // 逐个字节改写，解码结果可能不同，但不能抛出异常
+        for (int i = 0; i < bytes.length; i++) {
+            for (int value : new int[]{0x00, 0x7F, 0x80, 0xFF}) {
+                byte[] corrupted = bytes.clone();
+                corrupted[i] = (byte) value;
+                assertDoesNotThrow(() -> codec.decode(corrupted, Shop.class), "index=" + i);
+                assertDoesNotThrow(() -> codec.decodeLogical(corrupted, Shop.class), "index=" + i);
+            }
+        }
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/a.jpg,https://qcloud.dpfile.com/pc/b.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 布隆过滤器：大小计算、无漏判、误判率接近配置值、水位之后的id放行
+ */
+class BloomFilterTests {
+
+    private static final int INSERTIONS = 10000;
+    private static final double FPP = 0.01;
+
+    @Test
+    void sizesBitsAndHashesFromExpectedInsertions() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        // m = -n*ln(p)/(ln2)^2 = 95850，按64位取整
+        assertEquals(95872, filter.bitSize());
+        // k = m/n*ln2 ≈ 6.64
+        assertEquals(7, filter.hashCount());
+    }
+
+    @Test
+    void containsEveryInsertedValue() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= INSERTIONS; id++) {
+            assertTrue(filter.mightContain(id), "id=" + id);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearConfigured() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+        int probes = 100000;
+        int falsePositives = 0;
+        for (long id = INSERTIONS + 1; id <= INSERTIONS + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / (double) probes;
+        assertTrue(rate < FPP * 2, "rate=" + rate);
+    }
+
+    @Test
+    void idsAboveWatermarkAlwaysPass() {
+        BloomFilter filter = new BloomFilter(INSERTIONS, FPP);
+        for (long id = 1; id <= INSERTIONS; id++) {
+            filter.put(id);
+        }
+        CacheBloomFilter.IdFilter idFilter = new CacheBloomFilter.IdFilter(filter, INSERTIONS);
+        // 水位之后新增、未收到通知的id不能判断为不存在
+        for (long id = INSERTIONS + 1; id <= INSERTIONS * 2; id++) {
+            assertTrue(idFilter.mightContain(id), "id=" + id);
+        }
+        // 推进水位后按过滤器判断
+        idFilter.watermark = INSERTIONS * 2;
+        int falsePositives = 0;
+        for (long id = INSERTIONS + 1; id <= INSERTIONS * 2; id++) {
+            if (idFilter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < INSERTIONS * FPP * 2, "falsePositives=" + falsePositives);
+    }
+
+    @Test
+    void rejectsInvalidFpp() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(INSERTIONS, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(INSERTIONS, 1));
+    }
+}
@@ -0,0 +1,85 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点key探测：阈值、top-k 淘汰、子窗口轮转后冷却
+ */
+class HotKeyDetectorTests {
+
+    private static final int THRESHOLD = 10;
+
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        ReflectionTestUtils.setField(detector, "window", 1000L);
+        ReflectionTestUtils.setField(detector, "windows", 2);
+        ReflectionTestUtils.setField(detector, "threshold", (long) THRESHOLD);
+        ReflectionTestUtils.setField(detector, "topK", 2);
+        ReflectionTestUtils.setField(detector, "width", 1024);
+        ReflectionTestUtils.setField(detector, "depth", 4);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+    }
+
+    @Test
+    void becomesHotWhenReachingThreshold() {
+        for (int i = 1; i < THRESHOLD; i++) {
+            assertFalse(detector.record("cache:shop:1"));
+        }
+        assertTrue(detector.record("cache:shop:1"));
+        assertTrue(detector.isHot("cache:shop:1"));
+        assertFalse(detector.isHot("cache:shop:2"));
+    }
+
+    @Test
+    void fullTopKReplacesOnlySmallerEstimate() {
+        record("cache:shop:1", THRESHOLD);
+        record("cache:shop:2", THRESHOLD + 2);
+
+        // 与最小的热点key估算值相同，不替换
+        record("cache:shop:3", THRESHOLD);
+        assertFalse(detector.isHot("cache:shop:3"));
+
+        // 超过最小的热点key，替换它
+        assertTrue(detector.record("cache:shop:3"));
+        assertTrue(detector.isHot("cache:shop:3"));
+        assertTrue(detector.isHot("cache:shop:2"));
+        assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    @Test
+    void coolsDownAfterWindowSlidesPast() {
+        record("cache:shop:1", THRESHOLD);
+
+        // 第一次轮转只清空空的子窗口，访问次数仍在窗口内
+        detector.rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 所有子窗口轮转一遍后访问次数清零，移出热点
+        detector.rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    @Test
+    void disabledNeverReportsHot() {
+        ReflectionTestUtils.setField(detector, "enabled", false);
+        for (int i = 0; i < THRESHOLD * 2; i++) {
+            assertFalse(detector.record("cache:shop:1"));
+        }
+        assertFalse(detector.isHot("cache:shop:1"));
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 雪花id与 RedisIdWorker 的 incr/lease id 不重叠，前缀切换生成方式后不会复用已有主键
+ */
+class IdSpaceTests {
+
+    /**
+     * 32位序列号最大值
+     */
+    private static final long MAX_COUNT = (1L << 32) - 1;
+
+    @Test
+    void smallestSnowflakeIdIsAboveLargestRedisId() {
+        long largestRedisId = RedisIdWorker.compose(RedisIdWorker.MAX_TIMESTAMP, MAX_COUNT);
+        long smallestSnowflakeId = SnowflakeIdGenerator.compose(0, 0, 0);
+
+        assertTrue(largestRedisId > 0);
+        assertTrue(smallestSnowflakeId > largestRedisId);
+    }
+
+    @Test
+    void redisIdNeverSetsModeBit() {
+        long largestRedisId = RedisIdWorker.compose(RedisIdWorker.MAX_TIMESTAMP, MAX_COUNT);
+
+        assertEquals(0, largestRedisId & SnowflakeIdGenerator.MODE_BIT);
+    }
+
+    @Test
+    void snowflakeIdStaysPositive() {
+        long largestSnowflakeId = SnowflakeIdGenerator.compose((1L << 40) - 1, (1L << 10) - 1, (1L << 12) - 1);
+
+        assertTrue(largestSnowflakeId > 0);
+        assertEquals(SnowflakeIdGenerator.MODE_BIT, largestSnowflakeId & SnowflakeIdGenerator.MODE_BIT);
+    }
+}
@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 库存平均拆分到分段，余数放在前面的分段
+ */
+class SeckillStockManagerTests {
+
+    @Test
+    void splitPutsRemainderInFirstSegments() {
+        assertArrayEquals(new int[]{4, 3, 3}, SeckillStockManager.split(10, 3));
+        assertArrayEquals(new int[]{1, 1, 0, 0}, SeckillStockManager.split(2, 4));
+        assertArrayEquals(new int[]{0, 0, 0}, SeckillStockManager.split(0, 3));
+        assertArrayEquals(new int[]{7}, SeckillStockManager.split(7, 1));
+    }
+
+    @Test
+    void splitKeepsTotalAndDiffersByAtMostOne() {
+        for (int total = 0; total <= 200; total++) {
+            for (int parts = 1; parts <= 16; parts++) {
+                int[] result = SeckillStockManager.split(total, parts);
+                assertEquals(parts, result.length);
+                assertEquals(total, Arrays.stream(result).sum());
+                int max = Arrays.stream(result).max().getAsInt();
+                int min = Arrays.stream(result).min().getAsInt();
+                assertTrue(max - min <= 1, "total=" + total + ", parts=" + parts);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 对账修复判断：进行中的秒杀不自动补redis库存
+ */
+class SeckillStockReconcilerTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2023, 4, 1, 12, 0);
+
+    @Test
+    void negativeDeltaInOpenWindowNeedsManualRepair() {
+        assertTrue(SeckillStockReconciler.needManualRepair(-2, voucher(NOW.minusHours(1), NOW.plusHours(1)), NOW));
+        // jdbc驱动返回 Timestamp 时同样生效
+        Map<String, Object> voucher = new HashMap<>(4);
+        voucher.put("begin_time", Timestamp.valueOf(NOW.minusHours(1)));
+        voucher.put("end_time", Timestamp.valueOf(NOW.plusHours(1)));
+        assertTrue(SeckillStockReconciler.needManualRepair(-1, voucher, NOW));
+    }
+
+    @Test
+    void positiveDeltaIsRepairedAutomatically() {
+        assertFalse(SeckillStockReconciler.needManualRepair(3, voucher(NOW.minusHours(1), NOW.plusHours(1)), NOW));
+    }
+
+    @Test
+    void negativeDeltaOutsideWindowIsRepairedAutomatically() {
+        assertFalse(SeckillStockReconciler.needManualRepair(-2, voucher(NOW.minusHours(2), NOW.minusHours(1)), NOW));
+        assertFalse(SeckillStockReconciler.needManualRepair(-2, voucher(NOW.plusHours(1), NOW.plusHours(2)), NOW));
+    }
+
+    private static Map<String, Object> voucher(LocalDateTime begin, LocalDateTime end) {
+        Map<String, Object> voucher = new HashMap<>(4);
+        voucher.put("begin_time", begin);
+        voucher.put("end_time", end);
+        return voucher;
+    }
+}